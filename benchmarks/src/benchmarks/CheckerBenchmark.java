@@ -0,0 +1,97 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+
+/**
+ * Throughput of checker on the calculator machine of VerifyCalculatorInput.
+ * Inputs range from a short expression to a megabyte, and come in three workloads:
+ * accept (a valid expression), rejectEarly (invalid at the first character) and
+ * rejectLate (valid until the missing final "=", so the whole input is read).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CheckerBenchmark {
+    @Param({"16", "1024", "1048576"})
+    public int length;
+
+    @Param({"accept", "rejectEarly", "rejectLate"})
+    public String workload;
+
+    private Object stateMachine;
+    private Object compiled;
+    private Object mapped;
+    private Object specialized;
+    private LegacyChecker legacy;
+    private String input;
+
+    @Setup
+    public void setUp() throws Throwable {
+        stateMachine = Engines.calculator();
+        compiled = Engines.compile(stateMachine);
+        mapped = Engines.mapped(compiled);
+        specialized = Engines.specialize(stateMachine);
+        legacy = new LegacyChecker(Engines.text(stateMachine));
+        input = expression(length, workload, new Random(42));
+        boolean expected = workload.equals("accept");
+        if (Engines.checker(stateMachine, input) != expected || legacy.checker(input) != expected)
+            throw new IllegalStateException("Unexpected verdict for the " + workload + " input");
+    }
+
+    /**
+     * Builds a random expression such as 12+-7*30= of the given length.
+     */
+    static String expression(int length, String workload, Random random) {
+        StringBuilder sb = new StringBuilder(length);
+        if (workload.equals("rejectEarly"))
+            sb.append('*');
+        String operators = "+-*/";
+        while (sb.length() < length - 3) {
+            sb.append((char) ('1' + random.nextInt(9)));
+            if (random.nextInt(4) == 0)
+                sb.append(operators.charAt(random.nextInt(4)));
+        }
+        while (sb.length() < length - 1)
+            sb.append('0');
+        sb.append(workload.equals("rejectLate") ? '0' : '=');
+        return sb.toString();
+    }
+
+    @Benchmark
+    public boolean stateMachine() throws Throwable {
+        return Engines.checker(stateMachine, input);
+    }
+
+    @Benchmark
+    public boolean compiled() throws Throwable {
+        return Engines.compiledChecker(compiled, input);
+    }
+
+    @Benchmark
+    public boolean mapped() throws Throwable {
+        return Engines.automatonChecker(mapped, input);
+    }
+
+    @Benchmark
+    public boolean specialized() throws Throwable {
+        return Engines.automatonChecker(specialized, input);
+    }
+
+    @Benchmark
+    public boolean legacy() {
+        return legacy.checker(input);
+    }
+}
@@ -0,0 +1,134 @@
+package benchmarks;
+
+import java.io.Reader;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.nio.ByteBuffer;
+import java.util.Scanner;
+
+/**
+ * Access to the project classes from the benchmarks.
+ * The project lives in the unnamed package, which code in a named package cannot import,
+ * while JMH only accepts benchmarks in a named package. The project methods are therefore
+ * looked up once as method handles. They are held in static final fields and called with
+ * invokeExact, so the JIT treats them as constants and inlines them like direct calls.
+ */
+final class Engines {
+    private static final MethodHandle GENERATE_MACHINE;
+    private static final MethodHandle CHECKER;
+    private static final MethodHandle COMPILE;
+    private static final MethodHandle COMPILED_CHECKER;
+    private static final MethodHandle SPECIALIZE;
+    private static final MethodHandle TO_BYTES;
+    private static final MethodHandle WRAP;
+    private static final MethodHandle AUTOMATON_CHECKER;
+    private static final MethodHandle READ_SCANNER;
+    private static final MethodHandle READ_READER;
+    private static final MethodHandle TO_STRING;
+
+    static {
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+            Class<?> stateMachine = Class.forName("StateMachine");
+            Class<?> compiled = Class.forName("CompiledStateMachine");
+            Class<?> automaton = Class.forName("Automaton");
+            Class<?> mapped = Class.forName("MappedStateMachine");
+            GENERATE_MACHINE = erase(lookup.findStatic(Class.forName("VerifyCalculatorInput"),
+                    "generateMachine", MethodType.methodType(stateMachine)));
+            CHECKER = erase(lookup.findVirtual(stateMachine, "checker",
+                    MethodType.methodType(boolean.class, CharSequence.class)));
+            COMPILE = erase(lookup.findVirtual(stateMachine, "compile", MethodType.methodType(compiled)));
+            COMPILED_CHECKER = erase(lookup.findVirtual(compiled, "checker",
+                    MethodType.methodType(boolean.class, CharSequence.class)));
+            SPECIALIZE = erase(lookup.findVirtual(stateMachine, "specialize",
+                    MethodType.methodType(automaton)));
+            TO_BYTES = erase(lookup.findStatic(mapped, "toBytes",
+                    MethodType.methodType(ByteBuffer.class, compiled)));
+            WRAP = erase(lookup.findStatic(mapped, "wrap", MethodType.methodType(mapped, ByteBuffer.class)));
+            AUTOMATON_CHECKER = erase(lookup.findVirtual(automaton, "checker",
+                    MethodType.methodType(boolean.class, CharSequence.class)));
+            READ_SCANNER = erase(lookup.findStatic(stateMachine, "readStateMachine",
+                    MethodType.methodType(stateMachine, Scanner.class)));
+            READ_READER = erase(lookup.findStatic(Class.forName("StateMachineReader"), "read",
+                    MethodType.methodType(stateMachine, Reader.class)));
+            TO_STRING = lookup.findVirtual(Object.class, "toString", MethodType.methodType(String.class));
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private Engines() {
+    }
+
+    /**
+     * Replaces the project types in a handle's signature by Object.
+     */
+    private static MethodHandle erase(MethodHandle handle) {
+        MethodType type = handle.type();
+        for (int i = 0; i < type.parameterCount(); i++)
+            if (type.parameterType(i).getPackageName().isEmpty())
+                type = type.changeParameterType(i, Object.class);
+        if (type.returnType().getPackageName().isEmpty() && !type.returnType().isPrimitive())
+            type = type.changeReturnType(Object.class);
+        return handle.asType(type);
+    }
+
+    /**
+     * @return The calculator StateMachine of VerifyCalculatorInput.
+     */
+    static Object calculator() throws Throwable {
+        return (Object) GENERATE_MACHINE.invokeExact();
+    }
+
+    static boolean checker(Object stateMachine, CharSequence input) throws Throwable {
+        return (boolean) CHECKER.invokeExact(stateMachine, input);
+    }
+
+    /**
+     * @return The CompiledStateMachine of a StateMachine.
+     */
+    static Object compile(Object stateMachine) throws Throwable {
+        return (Object) COMPILE.invokeExact(stateMachine);
+    }
+
+    static boolean compiledChecker(Object compiled, CharSequence input) throws Throwable {
+        return (boolean) COMPILED_CHECKER.invokeExact(compiled, input);
+    }
+
+    /**
+     * @return The machine specialized into bytecode, an Automaton.
+     */
+    static Object specialize(Object stateMachine) throws Throwable {
+        return (Object) SPECIALIZE.invokeExact(stateMachine);
+    }
+
+    /**
+     * @return A MappedStateMachine over a direct buffer holding the binary form of the machine.
+     */
+    static Object mapped(Object compiled) throws Throwable {
+        ByteBuffer heap = (ByteBuffer) TO_BYTES.invokeExact(compiled);
+        ByteBuffer direct = ByteBuffer.allocateDirect(heap.remaining());
+        direct.put(heap).flip();
+        return (Object) WRAP.invokeExact(direct);
+    }
+
+    static boolean automatonChecker(Object automaton, CharSequence input) throws Throwable {
+        return (boolean) AUTOMATON_CHECKER.invokeExact(automaton, input);
+    }
+
+    static Object readStateMachine(Scanner scanner) throws Throwable {
+        return (Object) READ_SCANNER.invokeExact(scanner);
+    }
+
+    static Object read(Reader reader) throws Throwable {
+        return (Object) READ_READER.invokeExact(reader);
+    }
+
+    /**
+     * @return The text format of a StateMachine.
+     */
+    static String text(Object stateMachine) throws Throwable {
+        return (String) TO_STRING.invokeExact(stateMachine);
+    }
+}
@@ -0,0 +1,47 @@
+package benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The original checker algorithm, kept as a baseline: the input is split into one String
+ * per character and every step scans the whole transition list. It is rebuilt from the
+ * text format of a machine so that it does not depend on the current engine.
+ */
+final class LegacyChecker {
+    private static final String DEAD = "Dead State";
+
+    private final List<String[]> transitions = new ArrayList<>();
+    private final String initialState;
+    private final List<String> acceptingStates = new ArrayList<>();
+
+    LegacyChecker(String text) {
+        String[] lines = text.split("\n");
+        int i = 0;
+        while (!lines[i].equals("Transition Function"))
+            i++;
+        for (i++; !lines[i].equals("Initial State"); i++)
+            transitions.add(lines[i].split("___"));
+        initialState = lines[++i];
+        for (i += 2; i < lines.length; i++)
+            acceptingStates.add(lines[i]);
+    }
+
+    boolean checker(String input) {
+        String[] in = input.split("");
+        String current = initialState;
+        for (String c : in) {
+            if (current.equals(DEAD))
+                return false;
+            current = findNext(current, c);
+        }
+        return acceptingStates.contains(current);
+    }
+
+    private String findNext(String current, String input) {
+        for (String[] t : transitions)
+            if (t[0].equals(current) && t[1].equals(input))
+                return t[2];
+        return DEAD;
+    }
+}
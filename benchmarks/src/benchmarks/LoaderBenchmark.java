@@ -0,0 +1,107 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Random;
+import java.util.Scanner;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time to load a machine from its text format, with the Scanner based readStateMachine
+ * and with StateMachineReader. The inputs are StateMachineText.txt (run from the project
+ * directory) and synthetic machines with five transitions per state. The Scanner loader
+ * is quadratic, so it only gets the smaller synthetic machine.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LoaderBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class CalculatorText {
+        String text;
+
+        @Setup
+        public void setUp() throws Exception {
+            text = new String(Files.readAllBytes(Paths.get("StateMachineText.txt")), StandardCharsets.UTF_8);
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class LargeText {
+        @Param({"1000", "100000"})
+        public int states;
+        String text;
+
+        @Setup
+        public void setUp() {
+            text = synthetic(states);
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class SmallText {
+        String text;
+
+        @Setup
+        public void setUp() {
+            text = synthetic(1000);
+        }
+    }
+
+    /**
+     * @return A machine in the text format with the given number of states over a to e.
+     */
+    static String synthetic(int states) {
+        Random random = new Random(42);
+        StringBuilder sb = new StringBuilder("States\n");
+        for (int i = 0; i < states; i++)
+            sb.append('s').append(i).append('\n');
+        sb.append("Alphabet\n");
+        for (char c = 'a'; c <= 'e'; c++)
+            sb.append(c).append('\n');
+        sb.append("Transition Function\n");
+        for (int i = 0; i < states; i++)
+            for (char c = 'a'; c <= 'e'; c++)
+                sb.append('s').append(i).append("___").append(c).append("___s")
+                        .append(random.nextInt(states)).append('\n');
+        sb.append("Initial State\ns0\nAccepting States\ns1\n");
+        return sb.toString();
+    }
+
+    @Benchmark
+    public Object scannerCalculator(CalculatorText in) throws Throwable {
+        return Engines.readStateMachine(new Scanner(in.text));
+    }
+
+    @Benchmark
+    public Object readerCalculator(CalculatorText in) throws Throwable {
+        return Engines.read(new StringReader(in.text));
+    }
+
+    @Benchmark
+    public Object scannerSynthetic(SmallText in) throws Throwable {
+        return Engines.readStateMachine(new Scanner(in.text));
+    }
+
+    @Benchmark
+    public Object readerSynthetic(LargeText in) throws Throwable {
+        return Engines.read(new StringReader(in.text));
+    }
+}
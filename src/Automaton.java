@@ -0,0 +1,53 @@
+/**
+ * A deterministic machine that has been compiled to integer state ids.
+ * This is the contract shared by the different execution engines: a state id is
+ * stepped one character at a time, id DEAD means the input can no longer be accepted,
+ * and checker gives the same verdicts as StateMachine.checker.
+ */
+public interface Automaton {
+    int DEAD = 0;
+
+    int getInitialState();
+
+    /**
+     * Runs one step of the machine.
+     * @param state The current state id.
+     * @param c The next input character.
+     * @return The next state id, DEAD if there is no transition.
+     */
+    int step(int state, char c);
+
+    boolean isAccepting(int state);
+
+    /**
+     * @return The number of state ids, including the dead state.
+     */
+    int getStateCount();
+
+    String getStateName(int state);
+
+    /**
+     * Runs the machine over part of a character sequence.
+     * @param state The state to start from.
+     * @param input The input characters.
+     * @param from The index of the first character.
+     * @param to The index after the last character.
+     * @return The state reached, DEAD as soon as the input can no longer be accepted.
+     */
+    default int run(int state, CharSequence input, int from, int to) {
+        for (int i = from; i < to && state != DEAD; i++)
+            state = step(state, input.charAt(i));
+        return state;
+    }
+
+    /**
+     * Checks if a given string is part of the language of the machine.
+     * As with StateMachine.checker, the empty string is never accepted.
+     * @param input The input characters.
+     * @return Boolean indicating whether or not the input is in the language.
+     */
+    default boolean checker(CharSequence input) {
+        int length = input.length();
+        return length != 0 && isAccepting(run(getInitialState(), input, 0, length));
+    }
+}
@@ -0,0 +1,65 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.RandomAccess;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Checks a list of inputs against a compiled machine in parallel.
+ * The list is split in halves until the pieces are small enough, and each piece writes
+ * its verdicts into its own range of a shared array. Within a piece the inputs are run
+ * several at a time by CompiledStateMachine.checkAll. The compiled machine is immutable,
+ * so all workers use the same instance.
+ */
+final class BatchValidator extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+    private static final int MIN_SPLIT = 256;
+
+    private final CompiledStateMachine machine;
+    private final List<? extends CharSequence> inputs;
+    private final boolean[] verdicts;
+    private final int from;
+    private final int to;
+    private final int threshold;
+
+    private BatchValidator(CompiledStateMachine machine, List<? extends CharSequence> inputs,
+                           boolean[] verdicts, int from, int to, int threshold) {
+        this.machine = machine;
+        this.inputs = inputs;
+        this.verdicts = verdicts;
+        this.from = from;
+        this.to = to;
+        this.threshold = threshold;
+    }
+
+    /**
+     * Checks every input on the common fork-join pool.
+     * @param machine The machine to check with.
+     * @param inputs The inputs to check.
+     * @return The verdict for each input, in the same order.
+     */
+    static boolean[] checkAll(CompiledStateMachine machine, List<? extends CharSequence> inputs) {
+        if (!(inputs instanceof RandomAccess))
+            inputs = new ArrayList<>(inputs);
+        int size = inputs.size();
+        boolean[] verdicts = new boolean[size];
+        ForkJoinPool pool = ForkJoinPool.commonPool();
+        int threshold = Math.max(MIN_SPLIT, size / (pool.getParallelism() * 8));
+        if (size <= threshold)
+            new BatchValidator(machine, inputs, verdicts, 0, size, threshold).compute();
+        else
+            pool.invoke(new BatchValidator(machine, inputs, verdicts, 0, size, threshold));
+        return verdicts;
+    }
+
+    @Override
+    protected void compute() {
+        if (to - from <= threshold) {
+            machine.checkAll(inputs, from, to, verdicts);
+            return;
+        }
+        int mid = (from + to) >>> 1;
+        invokeAll(new BatchValidator(machine, inputs, verdicts, from, mid, threshold),
+                new BatchValidator(machine, inputs, verdicts, mid, to, threshold));
+    }
+}
@@ -0,0 +1,343 @@
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
+
+/**
+ * A compiled machine specialized into its own class at runtime.
+ * The test method of the generated class has one block of code per state, which reads
+ * the next character and jumps to the block of the next state through a lookupswitch on
+ * the character; characters without a case reject. There is no table and no class map
+ * left to read, so the JIT sees the whole machine as branches it can predict.
+ * <p>
+ * Only checker runs the generated code; step and run use the table of the compiled
+ * machine. The JIT does not compile methods of more than 8000 bytes of bytecode, so
+ * machines whose code would be larger are not specialized and of returns the compiled
+ * machine itself. Every generated class is defined by a class loader of its own, so it
+ * is unloaded once its BytecodeStateMachine is no longer reachable, and specializing many
+ * short-lived machines does not fill the metaspace.
+ */
+public final class BytecodeStateMachine implements Automaton {
+    /**
+     * The largest method the JIT compiles, in bytes of bytecode (HotSpot's HugeMethodLimit).
+     */
+    static final int MAX_CODE_LENGTH = 8000;
+
+    private static final AtomicInteger CLASS_COUNT = new AtomicInteger();
+
+    private final CompiledStateMachine machine;
+    private final Predicate<CharSequence> checker;
+
+    /**
+     * Defines one generated class. The class is in a runtime package of its own, so it only
+     * uses public types: it implements Predicate rather than an interface of this package.
+     */
+    private static final class Loader extends ClassLoader {
+        Loader() {
+            super(BytecodeStateMachine.class.getClassLoader());
+        }
+
+        Class<?> define(String name, byte[] bytes) {
+            return defineClass(name, bytes, 0, bytes.length);
+        }
+    }
+
+    private BytecodeStateMachine(CompiledStateMachine machine, Predicate<CharSequence> checker) {
+        this.machine = machine;
+        this.checker = checker;
+    }
+
+    /**
+     * @param machine A compiled machine.
+     * @return The machine specialized into bytecode, or the machine itself if its code
+     * would be too large for the JIT to compile.
+     */
+    public static Automaton of(CompiledStateMachine machine) {
+        int[][] keys = new int[machine.getStateCount()][];
+        int[][] targets = new int[keys.length][];
+        cases(machine, keys, targets);
+        if (codeLength(keys) > MAX_CODE_LENGTH)
+            return machine;
+        String name = "BytecodeStateMachine$Generated" + CLASS_COUNT.getAndIncrement();
+        byte[] bytes = classFile(name, machine, keys, targets);
+        try {
+            Class<?> generated = new Loader().define(name, bytes);
+            @SuppressWarnings("unchecked")
+            Predicate<CharSequence> checker = (Predicate<CharSequence>) generated.getDeclaredConstructor().newInstance();
+            return new BytecodeStateMachine(machine, checker);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Cannot load the generated class " + name, e);
+        }
+    }
+
+    /**
+     * Lists the switch cases of each state: the characters that lead to another state than
+     * DEAD, in increasing order, and the states they lead to.
+     */
+    private static void cases(CompiledStateMachine machine, int[][] keys, int[][] targets) {
+        int width = machine.getWidth();
+        char[][] chars = new char[width][];
+        for (int symbol = 1; symbol < width; symbol++)
+            chars[symbol] = machine.getSymbolChars(symbol);
+        for (int state = 0; state < keys.length; state++) {
+            long[] pairs = new long[0];
+            int size = 0;
+            for (int symbol = 1; state != DEAD && symbol < width; symbol++) {
+                int next = machine.next(state, symbol);
+                if (next == DEAD)
+                    continue;
+                pairs = Arrays.copyOf(pairs, size + chars[symbol].length);
+                for (char c : chars[symbol])
+                    pairs[size++] = (long) c << 32 | next;
+            }
+            Arrays.sort(pairs, 0, size);
+            keys[state] = new int[size];
+            targets[state] = new int[size];
+            for (int i = 0; i < size; i++) {
+                keys[state][i] = (int) (pairs[i] >>> 32);
+                targets[state][i] = (int) pairs[i];
+            }
+        }
+    }
+
+    /**
+     * @return An upper bound of the length of the test method.
+     */
+    private static int codeLength(int[][] keys) {
+        long length = 24;
+        for (int[] stateKeys : keys)
+            length += 32 + 8L * stateKeys.length;
+        return (int) Math.min(length, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public boolean checker(CharSequence input) {
+        return checker.test(input);
+    }
+
+    @Override
+    public int step(int state, char c) {
+        return machine.step(state, c);
+    }
+
+    @Override
+    public int getInitialState() {
+        return machine.getInitialState();
+    }
+
+    @Override
+    public boolean isAccepting(int state) {
+        return machine.isAccepting(state);
+    }
+
+    @Override
+    public int getStateCount() {
+        return machine.getStateCount();
+    }
+
+    @Override
+    public String getStateName(int state) {
+        return machine.getStateName(state);
+    }
+
+    /**
+     * @return The machine the class was generated from.
+     */
+    public CompiledStateMachine getMachine() {
+        return machine;
+    }
+
+    // Constant pool entries of the generated class, in the order classFile writes them.
+    private static final int THIS_CLASS = 2;
+    private static final int OBJECT = 4;
+    private static final int INTERFACE = 6;
+    private static final int INIT_NAME = 7;
+    private static final int VOID_DESCRIPTOR = 8;
+    private static final int OBJECT_INIT = 10;
+    private static final int CODE = 11;
+    private static final int CHECK_NAME = 12;
+    private static final int CHECK_DESCRIPTOR = 13;
+    private static final int CHAR_SEQUENCE = 15;
+    private static final int LENGTH = 19;
+    private static final int CHAR_AT = 23;
+
+    /**
+     * Writes a class file of version 49, which the verifier checks without stack map frames:
+     * <pre>
+     * public final class name implements Predicate {
+     *     public name() { super(); }
+     *     public boolean test(Object input) { ... }
+     * }
+     * </pre>
+     */
+    private static byte[] classFile(String name, CompiledStateMachine machine, int[][] keys, int[][] targets) {
+        ByteWriter out = new ByteWriter();
+        out.u4(0xCAFEBABE);
+        out.u2(0);
+        out.u2(49);
+        out.u2(24);
+        out.utf8(name);                                 // 1
+        out.u1(7).u2(1);                                // 2
+        out.utf8("java/lang/Object");                   // 3
+        out.u1(7).u2(3);                                // 4
+        out.utf8("java/util/function/Predicate");       // 5
+        out.u1(7).u2(5);                                // 6
+        out.utf8("<init>");                             // 7
+        out.utf8("()V");                                // 8
+        out.u1(12).u2(7).u2(8);                         // 9
+        out.u1(10).u2(4).u2(9);                         // 10
+        out.utf8("Code");                               // 11
+        out.utf8("test");                               // 12
+        out.utf8("(Ljava/lang/Object;)Z");              // 13
+        out.utf8("java/lang/CharSequence");             // 14
+        out.u1(7).u2(14);                               // 15
+        out.utf8("length");                             // 16
+        out.utf8("()I");                                // 17
+        out.u1(12).u2(16).u2(17);                       // 18
+        out.u1(11).u2(15).u2(18);                       // 19
+        out.utf8("charAt");                             // 20
+        out.utf8("(I)C");                               // 21
+        out.u1(12).u2(20).u2(21);                       // 22
+        out.u1(11).u2(15).u2(22);                       // 23
+
+        out.u2(0x0001 | 0x0010 | 0x0020);               // public, final, super
+        out.u2(THIS_CLASS);
+        out.u2(OBJECT);
+        out.u2(1);
+        out.u2(INTERFACE);
+        out.u2(0);                                      // fields
+        out.u2(2);                                      // methods
+
+        out.u2(0x0001).u2(INIT_NAME).u2(VOID_DESCRIPTOR).u2(1);
+        ByteWriter init = new ByteWriter();
+        init.u1(0x2A);                                  // aload_0
+        init.u1(0xB7).u2(OBJECT_INIT);                  // invokespecial Object.<init>
+        init.u1(0xB1);                                  // return
+        code(out, init, 1, 1);
+
+        out.u2(0x0001).u2(CHECK_NAME).u2(CHECK_DESCRIPTOR).u2(1);
+        code(out, check(machine, keys, targets), 2, 4);
+        out.u2(0);                                      // class attributes
+        return out.toByteArray();
+    }
+
+    private static void code(ByteWriter out, ByteWriter code, int maxStack, int maxLocals) {
+        out.u2(CODE).u4(12 + code.size());
+        out.u2(maxStack).u2(maxLocals);
+        out.u4(code.size());
+        out.bytes(code);
+        out.u2(0);                                      // exception table
+        out.u2(0);                                      // code attributes
+    }
+
+    /**
+     * The test method, with the input in local 1, its length in local 2 and the index of
+     * the next character in local 3. Each state's block returns the verdict at the end of
+     * the input, and otherwise reads a character and switches on it.
+     */
+    private static ByteWriter check(CompiledStateMachine machine, int[][] keys, int[][] targets) {
+        int states = keys.length;
+        int[] blockStart = new int[states];
+        int[] switchAt = new int[states];
+        ByteWriter code = new ByteWriter();
+        code.u1(0x2B);                                  // aload_1
+        code.u1(0xC0).u2(CHAR_SEQUENCE);                // checkcast CharSequence
+        code.u1(0x4C);                                  // astore_1
+        code.u1(0x2B);                                  // aload_1
+        code.u1(0xB9).u2(LENGTH).u1(1).u1(0);           // invokeinterface length
+        code.u1(0x3D);                                  // istore_2
+        code.u1(0x1C);                                  // iload_2
+        int reject = code.size();
+        code.u1(0x99).u2(0);                            // ifeq REJECT
+        code.u1(0x03);                                  // iconst_0
+        code.u1(0x3E);                                  // istore_3
+        int toInitial = code.size();
+        code.u1(0xA7).u2(0);                            // goto initial state
+        for (int state = 1; state < states; state++) {
+            blockStart[state] = code.size();
+            code.u1(0x1D);                              // iload_3
+            code.u1(0x1C);                              // iload_2
+            code.u1(0xA1).u2(5);                        // if_icmplt read
+            code.u1(machine.isAccepting(state) ? 0x04 : 0x03);  // iconst_1 or iconst_0
+            code.u1(0xAC);                              // ireturn
+            code.u1(0x2B);                              // aload_1
+            code.u1(0x1D);                              // iload_3
+            code.u1(0xB9).u2(CHAR_AT).u1(2).u1(0);      // invokeinterface charAt
+            code.u1(0x84).u1(3).u1(1);                  // iinc 3 1
+            switchAt[state] = code.size();
+            code.u1(0xAB);                              // lookupswitch
+            while (code.size() % 4 != 0)
+                code.u1(0);
+            code.u4(0);                                 // default, patched below
+            code.u4(keys[state].length);
+            for (int i = 0; i < keys[state].length; i++)
+                code.u4(keys[state][i]).u4(0);
+        }
+        blockStart[DEAD] = code.size();
+        code.u1(0x03);                                  // iconst_0
+        code.u1(0xAC);                                  // ireturn
+
+        code.patch2(reject + 1, blockStart[DEAD] - reject);
+        code.patch2(toInitial + 1, blockStart[machine.getInitialState()] - toInitial);
+        for (int state = 1; state < states; state++) {
+            int at = switchAt[state];
+            int table = (at + 4) & ~3;
+            code.patch4(table, blockStart[DEAD] - at);
+            for (int i = 0; i < keys[state].length; i++)
+                code.patch4(table + 12 + 8 * i, blockStart[targets[state][i]] - at);
+        }
+        return code;
+    }
+
+    /**
+     * A growable big-endian byte array.
+     */
+    private static final class ByteWriter {
+        private byte[] bytes = new byte[256];
+        private int size;
+
+        ByteWriter u1(int value) {
+            if (size == bytes.length)
+                bytes = Arrays.copyOf(bytes, 2 * size);
+            bytes[size++] = (byte) value;
+            return this;
+        }
+
+        ByteWriter u2(int value) {
+            return u1(value >>> 8).u1(value);
+        }
+
+        ByteWriter u4(int value) {
+            return u2(value >>> 16).u2(value);
+        }
+
+        void utf8(String s) {
+            // The names written here are all ASCII.
+            u1(1).u2(s.length());
+            for (int i = 0; i < s.length(); i++)
+                u1(s.charAt(i));
+        }
+
+        void bytes(ByteWriter other) {
+            for (int i = 0; i < other.size; i++)
+                u1(other.bytes[i]);
+        }
+
+        void patch2(int at, int value) {
+            bytes[at] = (byte) (value >>> 8);
+            bytes[at + 1] = (byte) value;
+        }
+
+        void patch4(int at, int value) {
+            patch2(at, value >>> 16);
+            patch2(at + 2, value);
+        }
+
+        int size() {
+            return size;
+        }
+
+        byte[] toByteArray() {
+            return Arrays.copyOf(bytes, size);
+        }
+    }
+}
@@ -0,0 +1,124 @@
+import java.nio.IntBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * Maps every char to the id of its equivalence class in a two-level table.
+ * The upper 8 bits of a char select an entry of the index, which holds the offset of
+ * a page of 256 class ids in pages; the lower 8 bits select the id in that page.
+ * Identical pages are stored once, so the large parts of Unicode that a machine does
+ * not use all share the first page, which maps to class 0.
+ */
+final class CharClassMap {
+    static final int PAGE_SIZE = 256;
+
+    private final int[] index;
+    private final int[] pages;
+
+    CharClassMap(int[] index, int[] pages) {
+        if (index.length != PAGE_SIZE || pages.length % PAGE_SIZE != 0)
+            throw new IllegalArgumentException("Malformed character class map");
+        for (int offset : index)
+            if (offset < 0 || offset % PAGE_SIZE != 0 || offset >= pages.length)
+                throw new IllegalArgumentException("Malformed character class map");
+        this.index = index;
+        this.pages = pages;
+    }
+
+    /**
+     * @param classOf The class of each char; chars past the end of the array are in class 0.
+     * @return The compressed map.
+     */
+    static CharClassMap of(int[] classOf) {
+        int[] index = new int[PAGE_SIZE];
+        HashMap<IntBuffer, Integer> offsets = new HashMap<>();
+        int[] pages = new int[PAGE_SIZE];
+        offsets.put(IntBuffer.wrap(new int[PAGE_SIZE]), 0);
+        int used = PAGE_SIZE;
+        for (int page = 0; page < PAGE_SIZE; page++) {
+            int start = page * PAGE_SIZE;
+            if (start >= classOf.length)
+                break;
+            int[] ids = Arrays.copyOfRange(classOf, start, start + PAGE_SIZE);
+            IntBuffer key = IntBuffer.wrap(ids);
+            Integer offset = offsets.get(key);
+            if (offset == null) {
+                if (used == pages.length)
+                    pages = Arrays.copyOf(pages, 2 * used);
+                System.arraycopy(ids, 0, pages, used, PAGE_SIZE);
+                offset = used;
+                offsets.put(key, offset);
+                used += PAGE_SIZE;
+            }
+            index[page] = offset;
+        }
+        return new CharClassMap(index, Arrays.copyOf(pages, used));
+    }
+
+    /**
+     * @param c A character.
+     * @return The class of the character.
+     */
+    int get(char c) {
+        return pages[index[c >>> 8] + (c & 0xFF)];
+    }
+
+    /**
+     * @param chars Characters to move.
+     * @param id The class to move them to.
+     * @return A copy of this map in which the given characters are in the given class.
+     */
+    CharClassMap with(String chars, int id) {
+        int[] classOf = new int[Character.MAX_VALUE + 1];
+        for (int c = 0; c <= Character.MAX_VALUE; c++)
+            classOf[c] = get((char) c);
+        for (int i = 0; i < chars.length(); i++)
+            classOf[chars.charAt(i)] = id;
+        return of(classOf);
+    }
+
+    /**
+     * @param id A class id.
+     * @return Every character in the class, in increasing order.
+     */
+    char[] chars(int id) {
+        StringBuilder chars = new StringBuilder();
+        for (int page = 0; page < PAGE_SIZE; page++) {
+            int offset = index[page];
+            for (int i = 0; i < PAGE_SIZE; i++)
+                if (pages[offset + i] == id)
+                    chars.append((char) (page * PAGE_SIZE + i));
+        }
+        return chars.toString().toCharArray();
+    }
+
+    /**
+     * @param classes The number of classes.
+     * @return The smallest character of each class, 0 for a class without characters.
+     */
+    char[] firstChars(int classes) {
+        char[] first = new char[classes];
+        boolean[] seen = new boolean[classes];
+        for (int page = 0; page < PAGE_SIZE; page++) {
+            int offset = index[page];
+            for (int i = 0; i < PAGE_SIZE; i++) {
+                int id = pages[offset + i];
+                if (!seen[id]) {
+                    seen[id] = true;
+                    first[id] = (char) (page * PAGE_SIZE + i);
+                }
+            }
+        }
+        return first;
+    }
+
+    // The internal arrays, shared without copying with the serializer.
+
+    int[] index() {
+        return index;
+    }
+
+    int[] pages() {
+        return pages;
+    }
+}
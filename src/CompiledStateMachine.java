@@ -0,0 +1,689 @@
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * A StateMachine compiled into a dense transition table.
+ * Every state gets an integer id and every input character a symbol id, so a step is
+ * a single lookup in table[state * width + symbol] with no allocation.
+ * Characters that lead to the same state from every state share a symbol, so the
+ * table has one column per equivalence class instead of one per character; the class
+ * of a character is looked up in a two-level CharClassMap, which covers all of Unicode.
+ * Id 0 is reserved for the dead state, and symbol 0 for every character outside the alphabet.
+ * <p>
+ * Every transition into a trap state, from which no accepting state can be reached, leads
+ * to the dead state instead, so a run stops at the first character after which the input
+ * can no longer be accepted. An accepting state whose every transition over the alphabet
+ * leads to another such state accepts forever: once checker reaches one, the rest of the
+ * input only has to be made of characters of the alphabet. compile numbers these states
+ * last, so that checker can tell them, and the dead state, apart with one comparison.
+ */
+public final class CompiledStateMachine implements Automaton {
+    // The number of inputs checkAll runs at a time.
+    private static final int LANES = 4;
+    private static final int[] MIN_CODE_POINT = {0, 0x80, 0x800, 0x10000};
+
+    private final int[] table;
+    private final int width;
+    private final CharClassMap classes;
+    private final char[] symbols;
+    private final boolean[] accepting;
+    private final int initialState;
+    private final String[] stateNames;
+    // The states from this id on accept forever.
+    private final int foreverFrom;
+
+    private CompiledStateMachine(int[] table, int width, CharClassMap classes, boolean[] accepting,
+                                 int initialState, String[] stateNames, int foreverFrom) {
+        this.foreverFrom = foreverFrom;
+        this.table = table;
+        this.width = width;
+        this.classes = classes;
+        this.symbols = classes.firstChars(width);
+        this.accepting = accepting;
+        this.initialState = initialState;
+        this.stateNames = stateNames;
+    }
+
+    /**
+     * Builds a machine from a table that did not come out of compile: transitions into trap
+     * states are sent to DEAD, and the states after the last state that does not accept
+     * forever are found.
+     */
+    static CompiledStateMachine of(int[] table, int width, CharClassMap classes,
+                                   boolean[] accepting, int initialState, String[] stateNames) {
+        int[] predStart = new int[accepting.length + 1];
+        int[] preds = predecessors(table, width, accepting.length, predStart);
+        table = pruneTraps(table, width, accepting, predStart, preds);
+        boolean[] forever = acceptForever(table, width, accepting, predStart, preds);
+        int from = accepting.length;
+        while (from > 1 && forever[from - 1])
+            from--;
+        return new CompiledStateMachine(table, width, classes, accepting, initialState, stateNames, from);
+    }
+
+    /**
+     * Compiles a state machine into its table form.
+     * States are identified by name, the same way State.equals does, and when several
+     * transitions share a state and input the first one wins, as it did in the list scan.
+     * Characters of the alphabet that have no transitions at all still get a symbol of
+     * their own, so that toStateMachine gives them back.
+     * @param sm The machine to compile.
+     * @return The compiled machine.
+     */
+    public static CompiledStateMachine compile(StateMachine sm) {
+        HashMap<String, Integer> ids = new HashMap<>();
+        ArrayList<String> names = new ArrayList<>();
+        names.add(sm.getDeadState().getName());
+        stateId(sm.getInitialState(), ids, names);
+        for (State s : sm.getStates())
+            stateId(s, ids, names);
+
+        ArrayList<Character> symbolList = new ArrayList<>();
+        int[] symbolIndex = new int[Character.MAX_VALUE + 1];
+        for (String s : sm.getAlphabet())
+            addSymbol(s, symbolIndex, symbolList);
+        for (Transition t : sm.getTransitionFunction()) {
+            addSymbol(t.getInput(), symbolIndex, symbolList);
+            if (t.getCurrent() != null && t.getNext() != null) {
+                stateId(t.getCurrent(), ids, names);
+                stateId(t.getNext(), ids, names);
+            }
+        }
+
+        int stateCount = names.size();
+        int characters = symbolList.size() + 1;
+        int[] byCharacter = new int[stateCount * characters];
+        for (Transition t : sm.getTransitionFunction()) {
+            if (t.getCurrent() == null || t.getNext() == null || t.getInput() == null
+                    || t.getInput().length() != 1)
+                continue;
+            int cell = ids.get(t.getCurrent().getName()) * characters + symbolIndex[t.getInput().charAt(0)];
+            if (byCharacter[cell] == DEAD)
+                byCharacter[cell] = ids.get(t.getNext().getName());
+        }
+
+        boolean[] accepting = new boolean[stateCount];
+        for (State s : sm.getAcceptingStates()) {
+            Integer id = s == null ? null : ids.get(s.getName());
+            if (id != null)
+                accepting[id] = true;
+        }
+        int[] predStart = new int[stateCount + 1];
+        int[] preds = predecessors(byCharacter, characters, stateCount, predStart);
+        byCharacter = pruneTraps(byCharacter, characters, accepting, predStart, preds);
+        boolean[] forever = acceptForever(byCharacter, characters, accepting, predStart, preds);
+
+        // Number the states that accept forever last, keeping the order of the others.
+        int[] newId = new int[stateCount];
+        int next = 0;
+        int foreverFrom = 0;
+        for (int pass = 0; pass < 2; pass++) {
+            for (int s = 0; s < stateCount; s++)
+                if (forever[s] == (pass == 1))
+                    newId[s] = next++;
+            if (pass == 0)
+                foreverFrom = next;
+        }
+        String[] stateNames = new String[stateCount];
+        boolean[] newAccepting = new boolean[stateCount];
+        int[] renumbered = new int[byCharacter.length];
+        for (int s = 0; s < stateCount; s++) {
+            stateNames[newId[s]] = names.get(s);
+            newAccepting[newId[s]] = accepting[s];
+            for (int symbol = 0; symbol < characters; symbol++)
+                renumbered[newId[s] * characters + symbol] = newId[byCharacter[s * characters + symbol]];
+        }
+        byCharacter = renumbered;
+
+        // Characters whose columns are equal form one class.
+        HashMap<IntBuffer, Integer> columns = new HashMap<>();
+        int[] classOfCharacter = new int[characters];
+        int width = 1;
+        for (int symbol = 1; symbol < characters; symbol++) {
+            int[] column = new int[stateCount];
+            for (int s = 0; s < stateCount; s++)
+                column[s] = byCharacter[s * characters + symbol];
+            Integer id = columns.putIfAbsent(IntBuffer.wrap(column), width);
+            if (id == null)
+                id = width++;
+            classOfCharacter[symbol] = id;
+        }
+        int[] table = new int[stateCount * width];
+        for (int symbol = 1; symbol < characters; symbol++)
+            for (int s = 0; s < stateCount; s++)
+                table[s * width + classOfCharacter[symbol]] = byCharacter[s * characters + symbol];
+        for (int c = 0; c <= Character.MAX_VALUE; c++)
+            symbolIndex[c] = classOfCharacter[symbolIndex[c]];
+
+        return new CompiledStateMachine(table, width, CharClassMap.of(symbolIndex), newAccepting,
+                newId[ids.get(sm.getInitialState().getName())], stateNames, foreverFrom);
+    }
+
+    /**
+     * Lists the transitions into each state, as compressed rows of cell indices: the cells
+     * that lead to state t are preds[predStart[t]] to preds[predStart[t + 1] - 1].
+     */
+    private static int[] predecessors(int[] table, int width, int stateCount, int[] predStart) {
+        for (int target : table)
+            predStart[target + 1]++;
+        for (int s = 0; s < stateCount; s++)
+            predStart[s + 1] += predStart[s];
+        int[] preds = new int[table.length];
+        int[] fill = Arrays.copyOf(predStart, stateCount);
+        for (int cell = 0; cell < table.length; cell++)
+            preds[fill[table[cell]]++] = cell;
+        return preds;
+    }
+
+    /**
+     * Finds the states from which an accepting state can be reached, going backwards from
+     * the accepting states, and sends every transition into any other state to DEAD.
+     * @return The table, or a pruned copy if it had transitions into trap states.
+     */
+    private static int[] pruneTraps(int[] table, int width, boolean[] accepting,
+                                    int[] predStart, int[] preds) {
+        int n = accepting.length;
+        boolean[] live = accepting.clone();
+        int[] queue = new int[n];
+        int tail = 0;
+        for (int s = 0; s < n; s++)
+            if (live[s])
+                queue[tail++] = s;
+        for (int head = 0; head < tail; head++)
+            for (int k = predStart[queue[head]]; k < predStart[queue[head] + 1]; k++) {
+                int from = preds[k] / width;
+                if (!live[from]) {
+                    live[from] = true;
+                    queue[tail++] = from;
+                }
+            }
+        int[] pruned = table;
+        for (int cell = 0; cell < table.length; cell++)
+            if (!live[table[cell]] && table[cell] != DEAD) {
+                if (pruned == table)
+                    pruned = table.clone();
+                pruned[cell] = DEAD;
+            }
+        return pruned;
+    }
+
+    /**
+     * Finds the accepting states from which every transition on a character of the
+     * alphabet leads to another such state, by removing the states that lead elsewhere
+     * until none is left to remove. The transitions of unknown characters are left out,
+     * since checker still looks those characters up. preds may list the table from before
+     * pruning, so every cell is checked against the table.
+     * @return For each state, whether it accepts forever.
+     */
+    private static boolean[] acceptForever(int[] table, int width, boolean[] accepting,
+                                           int[] predStart, int[] preds) {
+        int n = accepting.length;
+        boolean[] forever = accepting.clone();
+        forever[DEAD] = false;
+        int[] queue = new int[n];
+        int tail = 0;
+        for (int s = 0; s < n; s++)
+            if (!forever[s])
+                queue[tail++] = s;
+        for (int head = 0; head < tail; head++) {
+            int removed = queue[head];
+            for (int k = predStart[removed]; k < predStart[removed + 1]; k++) {
+                int cell = preds[k];
+                int from = cell / width;
+                if (forever[from] && cell % width != 0 && table[cell] == removed) {
+                    forever[from] = false;
+                    queue[tail++] = from;
+                }
+            }
+            // Transitions that pruning redirected to DEAD are no longer listed under it.
+            if (removed == DEAD)
+                for (int s = 1; s < n; s++)
+                    if (forever[s])
+                        for (int symbol = 1; symbol < width; symbol++)
+                            if (table[s * width + symbol] == DEAD) {
+                                forever[s] = false;
+                                queue[tail++] = s;
+                                break;
+                            }
+        }
+        return forever;
+    }
+
+    /**
+     * Builds a copy of this machine that ignores the given characters.
+     * The characters share a new table column in which every state loops onto itself,
+     * which has the same effect as removing them from the input before checking it. The
+     * loops change neither which states are traps nor which accept forever.
+     * @param ignored The characters to skip, for example " \t\r".
+     * @return The new machine.
+     */
+    public CompiledStateMachine skipping(String ignored) {
+        int newWidth = width + 1;
+        int stateCount = stateNames.length;
+        int[] newTable = new int[stateCount * newWidth];
+        for (int s = 0; s < stateCount; s++) {
+            System.arraycopy(table, s * width, newTable, s * newWidth, width);
+            newTable[s * newWidth + width] = s;
+        }
+        return new CompiledStateMachine(newTable, newWidth, classes.with(ignored, width), accepting,
+                initialState, stateNames, foreverFrom);
+    }
+
+    /**
+     * @param names The new name of each state.
+     * @return A copy of this machine with its states renamed, sharing its table.
+     */
+    CompiledStateMachine renamed(String[] names) {
+        if (names.length != stateNames.length)
+            throw new IllegalArgumentException("Expected " + stateNames.length + " names");
+        return new CompiledStateMachine(table, width, classes, accepting, initialState, names, foreverFrom);
+    }
+
+    private static int stateId(State s, HashMap<String, Integer> ids, ArrayList<String> names) {
+        Integer id = ids.get(s.getName());
+        if (id == null) {
+            id = names.size();
+            ids.put(s.getName(), id);
+            names.add(s.getName());
+        }
+        return id;
+    }
+
+    private static void addSymbol(String s, int[] symbolIndex, ArrayList<Character> symbolList) {
+        if (s == null || s.length() != 1)
+            return;
+        char c = s.charAt(0);
+        if (symbolIndex[c] == 0) {
+            symbolList.add(c);
+            symbolIndex[c] = symbolList.size();
+        }
+    }
+
+    /**
+     * Checks if a given string is part of the language of the machine.
+     * As with StateMachine.checker, the empty string is never accepted.
+     * @param input The input characters.
+     * @return Boolean indicating whether or not the input is in the language.
+     */
+    @Override
+    public boolean checker(CharSequence input) {
+        int length = input.length();
+        int state = initialState;
+        int i = 0;
+        // Unsigned, so that DEAD compares above every state and the loop stops there too.
+        while (i < length && Integer.compareUnsigned(state - 1, foreverFrom - 1) < 0)
+            state = step(state, input.charAt(i++));
+        return verdict(input, i, length, state);
+    }
+
+    /**
+     * @return Whether an input is accepted, given the state checker stopped in and the
+     * index of the first character it did not read.
+     */
+    private boolean verdict(CharSequence input, int i, int length, int state) {
+        if (length == 0 || state < foreverFrom)
+            return length != 0 && accepting[state];
+        while (i < length)
+            if (classes.get(input.charAt(i++)) == 0)
+                return false;
+        return true;
+    }
+
+    /**
+     * Checks a range of inputs, running four of them at a time. A single run waits for each
+     * table read before it can start the next one; runs over independent inputs do not, so
+     * interleaving them keeps the reads of all four in flight together. The runs step in
+     * lockstep, with no test per character, for as many characters as the shortest of them
+     * has left; a run that dies or starts accepting forever meanwhile keeps stepping exactly
+     * and reaches the same verdict. Between rounds, a run that is done, dead or accepting
+     * forever hands its lane to the next input, so inputs of different lengths keep every
+     * lane busy. When the inputs run out, the runs that are left are finished one by one.
+     * @param inputs The inputs.
+     * @param from The index of the first input to check.
+     * @param to The index after the last input to check.
+     * @param verdicts Receives the verdict of each input, at the index of the input.
+     */
+    void checkAll(List<? extends CharSequence> inputs, int from, int to, boolean[] verdicts) {
+        if (to - from < LANES) {
+            for (int i = from; i < to; i++)
+                verdicts[i] = checker(inputs.get(i));
+            return;
+        }
+        int last = foreverFrom - 1;
+        int next = from;
+        int i0 = next++, i1 = next++, i2 = next++, i3 = next++;
+        CharSequence t0 = inputs.get(i0), t1 = inputs.get(i1), t2 = inputs.get(i2), t3 = inputs.get(i3);
+        int e0 = t0.length(), e1 = t1.length(), e2 = t2.length(), e3 = t3.length();
+        int p0 = 0, p1 = 0, p2 = 0, p3 = 0;
+        int s0 = initialState, s1 = initialState, s2 = initialState, s3 = initialState;
+        lanes:
+        while (true) {
+            while (e0 == p0 || Integer.compareUnsigned(s0 - 1, last) >= 0) {
+                verdicts[i0] = verdict(t0, p0, e0, s0);
+                t0 = null;
+                if (next == to)
+                    break lanes;
+                t0 = inputs.get(next);
+                i0 = next++;
+                p0 = 0;
+                e0 = t0.length();
+                s0 = initialState;
+            }
+            while (e1 == p1 || Integer.compareUnsigned(s1 - 1, last) >= 0) {
+                verdicts[i1] = verdict(t1, p1, e1, s1);
+                t1 = null;
+                if (next == to)
+                    break lanes;
+                t1 = inputs.get(next);
+                i1 = next++;
+                p1 = 0;
+                e1 = t1.length();
+                s1 = initialState;
+            }
+            while (e2 == p2 || Integer.compareUnsigned(s2 - 1, last) >= 0) {
+                verdicts[i2] = verdict(t2, p2, e2, s2);
+                t2 = null;
+                if (next == to)
+                    break lanes;
+                t2 = inputs.get(next);
+                i2 = next++;
+                p2 = 0;
+                e2 = t2.length();
+                s2 = initialState;
+            }
+            while (e3 == p3 || Integer.compareUnsigned(s3 - 1, last) >= 0) {
+                verdicts[i3] = verdict(t3, p3, e3, s3);
+                t3 = null;
+                if (next == to)
+                    break lanes;
+                t3 = inputs.get(next);
+                i3 = next++;
+                p3 = 0;
+                e3 = t3.length();
+                s3 = initialState;
+            }
+            int steps = Math.min(Math.min(e0 - p0, e1 - p1), Math.min(e2 - p2, e3 - p3));
+            for (int k = 0; k < steps; k++) {
+                s0 = table[s0 * width + classes.get(t0.charAt(p0 + k))];
+                s1 = table[s1 * width + classes.get(t1.charAt(p1 + k))];
+                s2 = table[s2 * width + classes.get(t2.charAt(p2 + k))];
+                s3 = table[s3 * width + classes.get(t3.charAt(p3 + k))];
+            }
+            p0 += steps;
+            p1 += steps;
+            p2 += steps;
+            p3 += steps;
+        }
+        if (t0 != null)
+            verdicts[i0] = verdict(t0, p0, s0);
+        if (t1 != null)
+            verdicts[i1] = verdict(t1, p1, s1);
+        if (t2 != null)
+            verdicts[i2] = verdict(t2, p2, s2);
+        if (t3 != null)
+            verdicts[i3] = verdict(t3, p3, s3);
+    }
+
+    /**
+     * Finishes a run that was interrupted at some index.
+     */
+    private boolean verdict(CharSequence input, int i, int state) {
+        int length = input.length();
+        while (i < length && Integer.compareUnsigned(state - 1, foreverFrom - 1) < 0)
+            state = step(state, input.charAt(i++));
+        return verdict(input, i, length, state);
+    }
+
+    /**
+     * Checks a slice of a character array without copying it.
+     * @param input The array holding the input.
+     * @param offset The index of the first character.
+     * @param length The number of characters to check.
+     * @return Boolean indicating whether or not the input is in the language.
+     */
+    public boolean checker(char[] input, int offset, int length) {
+        Objects.checkFromIndexSize(offset, length, input.length);
+        int to = offset + length;
+        int state = initialState;
+        int i = offset;
+        while (i < to && Integer.compareUnsigned(state - 1, foreverFrom - 1) < 0)
+            state = step(state, input[i++]);
+        if (length == 0 || state < foreverFrom)
+            return length != 0 && accepting[state];
+        while (i < to)
+            if (classes.get(input[i++]) == 0)
+                return false;
+        return true;
+    }
+
+    /**
+     * Checks the bytes between the position and the limit of a buffer, decoded as UTF-8.
+     * The position of the buffer is left unchanged. Malformed input is rejected.
+     * @param input The buffer holding the input.
+     * @return Boolean indicating whether or not the input is in the language.
+     */
+    public boolean checker(ByteBuffer input) {
+        int from = input.position();
+        int to = input.limit();
+        return from != to && accepting[run(initialState, input, from, to)];
+    }
+
+    /**
+     * Runs the machine over part of a character sequence.
+     * @param state The state to start from.
+     * @param input The input characters.
+     * @param from The index of the first character.
+     * @param to The index after the last character.
+     * @return The state reached, DEAD as soon as the input can no longer be accepted.
+     */
+    @Override
+    public int run(int state, CharSequence input, int from, int to) {
+        for (int i = from; i < to && state != DEAD; i++)
+            state = step(state, input.charAt(i));
+        return state;
+    }
+
+    /**
+     * Runs the machine over part of a character array.
+     * @param state The state to start from.
+     * @param input The input characters.
+     * @param from The index of the first character.
+     * @param to The index after the last character.
+     * @return The state reached, DEAD as soon as the input can no longer be accepted.
+     */
+    public int run(int state, char[] input, int from, int to) {
+        for (int i = from; i < to && state != DEAD; i++)
+            state = step(state, input[i]);
+        return state;
+    }
+
+    /**
+     * Runs the machine over UTF-8 encoded bytes, using absolute reads only.
+     * Characters outside the basic multilingual plane are fed as their two surrogates.
+     * @param state The state to start from.
+     * @param input The input bytes.
+     * @param from The index of the first byte.
+     * @param to The index after the last byte.
+     * @return The state reached, DEAD if the input is malformed or can no longer be accepted.
+     */
+    public int run(int state, ByteBuffer input, int from, int to) {
+        int i = from;
+        while (i < to && state != DEAD) {
+            int b = input.get(i++);
+            if (b >= 0) {
+                state = step(state, (char) b);
+                continue;
+            }
+            int extra;
+            int codePoint;
+            if ((b & 0xE0) == 0xC0) {
+                extra = 1;
+                codePoint = b & 0x1F;
+            } else if ((b & 0xF0) == 0xE0) {
+                extra = 2;
+                codePoint = b & 0x0F;
+            } else if ((b & 0xF8) == 0xF0) {
+                extra = 3;
+                codePoint = b & 0x07;
+            } else {
+                return DEAD;
+            }
+            if (i + extra > to)
+                return DEAD;
+            for (int k = 0; k < extra; k++) {
+                int next = input.get(i++);
+                if ((next & 0xC0) != 0x80)
+                    return DEAD;
+                codePoint = (codePoint << 6) | (next & 0x3F);
+            }
+            if (codePoint < MIN_CODE_POINT[extra] || codePoint > Character.MAX_CODE_POINT
+                    || Character.isSurrogate((char) codePoint) && codePoint < 0x10000)
+                return DEAD;
+            if (codePoint < 0x10000) {
+                state = step(state, (char) codePoint);
+            } else {
+                state = step(state, Character.highSurrogate(codePoint));
+                if (state != DEAD)
+                    state = step(state, Character.lowSurrogate(codePoint));
+            }
+        }
+        return state;
+    }
+
+    /**
+     * Runs one step of the machine.
+     * @param state The current state id.
+     * @param c The next input character.
+     * @return The next state id, DEAD if there is no transition.
+     */
+    @Override
+    public int step(int state, char c) {
+        return table[state * width + classes.get(c)];
+    }
+
+    /**
+     * @param c A character.
+     * @return The symbol id of the character, 0 if it is outside the alphabet.
+     */
+    int symbolOf(char c) {
+        return classes.get(c);
+    }
+
+    /**
+     * @param state A state id.
+     * @param symbol A symbol id, between 0 and getWidth() - 1.
+     * @return The next state id.
+     */
+    int next(int state, int symbol) {
+        return table[state * width + symbol];
+    }
+
+    @Override
+    public int getInitialState() {
+        return initialState;
+    }
+
+    /**
+     * @param state A state id.
+     * @return Whether the state accepts, and every character of the alphabet leads to a
+     * state that accepts forever as well. compile numbers all such states last; of a table
+     * that did not come out of compile, only the ones after the last other state are counted.
+     */
+    public boolean isAcceptingForever(int state) {
+        return state >= foreverFrom;
+    }
+
+    @Override
+    public boolean isAccepting(int state) {
+        return accepting[state];
+    }
+
+    @Override
+    public int getStateCount() {
+        return stateNames.length;
+    }
+
+    /**
+     * @return The number of table columns, one per class of characters, including the
+     * column for unknown characters.
+     */
+    public int getWidth() {
+        return width;
+    }
+
+    @Override
+    public String getStateName(int state) {
+        return stateNames[state];
+    }
+
+    /**
+     * @param symbol A symbol id greater than 0.
+     * @return The smallest character the symbol stands for.
+     */
+    public char getSymbol(int symbol) {
+        return symbols[symbol];
+    }
+
+    /**
+     * @param symbol A symbol id greater than 0.
+     * @return Every character that maps to the symbol.
+     */
+    public char[] getSymbolChars(int symbol) {
+        return classes.chars(symbol);
+    }
+
+    /**
+     * Turns the table back into a StateMachine, leaving out the dead state.
+     * @return The equivalent state machine.
+     */
+    public StateMachine toStateMachine() {
+        ArrayList<State> states = new ArrayList<>();
+        states.add(null);
+        for (int s = 1; s < stateNames.length; s++)
+            states.add(new State(stateNames[s]));
+        ArrayList<String> alphabet = new ArrayList<>();
+        String[][] inputs = new String[width][];
+        for (int symbol = 1; symbol < width; symbol++) {
+            char[] chars = getSymbolChars(symbol);
+            inputs[symbol] = new String[chars.length];
+            for (int i = 0; i < chars.length; i++) {
+                inputs[symbol][i] = String.valueOf(chars[i]);
+                alphabet.add(inputs[symbol][i]);
+            }
+        }
+        ArrayList<Transition> transitions = new ArrayList<>();
+        ArrayList<State> acceptingStates = new ArrayList<>();
+        for (int s = 1; s < stateNames.length; s++) {
+            if (accepting[s])
+                acceptingStates.add(states.get(s));
+            for (int symbol = 1; symbol < width; symbol++) {
+                int next = table[s * width + symbol];
+                if (next != DEAD)
+                    for (String input : inputs[symbol])
+                        transitions.add(new Transition(states.get(s), states.get(next), input));
+            }
+        }
+        State initial = states.get(initialState);
+        states.remove(0);
+        return new StateMachine(states, alphabet, transitions, initial, acceptingStates, this);
+    }
+
+    // The internal arrays, shared without copying with the serializer.
+
+    int[] table() {
+        return table;
+    }
+
+    CharClassMap classes() {
+        return classes;
+    }
+
+    String[] stateNames() {
+        return stateNames;
+    }
+}
@@ -0,0 +1,215 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Builds the minimal machine accepting a list of words, from the words in sorted order,
+ * with the incremental algorithm of Daciuk, Mihov, Watson and Watson.
+ * <p>
+ * Only the path of the last word added is still open to change. When the next word
+ * leaves that path, the states below the point where it leaves can no longer change: each
+ * of them is looked up in a register of the finished states by its signature (whether it
+ * accepts, and its transitions) and replaced by an equivalent state if there is one, or
+ * added to the register otherwise. The machine is therefore minimal at every step, and
+ * memory stays close to the size of the final machine plus one word.
+ * <p>
+ * Finished states are kept in flat arrays in compressed sparse row layout, and the
+ * register is an open addressing hash table of state ids over them, so there is no object
+ * per state or transition. Words are compared by char, as String.compareTo does. The
+ * empty string is never accepted, so an empty word is ignored, and so is a repeated word.
+ */
+public final class DictionaryBuilder {
+    // Finished states, from id 1 on: transitions first[s] to first[s + 1] - 1.
+    private int[] first = new int[64];
+    private char[] keys = new char[64];
+    private int[] targets = new int[64];
+    private boolean[] accepting = new boolean[64];
+    private int stateCount = 1;
+    private int[] register = new int[64];
+    private int registered;
+
+    // The states on the path of the last word, by depth, which are not finished yet.
+    private final ArrayList<OpenState> path = new ArrayList<>();
+    private char[] previous = new char[0];
+    private int previousLength;
+    private int root;
+
+    /**
+     * A state that can still get transitions; the last one may lead to the open state
+     * one level deeper.
+     */
+    private static final class OpenState {
+        char[] keys = new char[4];
+        int[] targets = new int[4];
+        int size;
+        boolean accepting;
+
+        void add(char c, int target) {
+            if (size == keys.length) {
+                keys = Arrays.copyOf(keys, 2 * size);
+                targets = Arrays.copyOf(targets, 2 * size);
+            }
+            keys[size] = c;
+            targets[size++] = target;
+        }
+
+        void clear() {
+            size = 0;
+            accepting = false;
+        }
+    }
+
+    public DictionaryBuilder() {
+        path.add(new OpenState());
+    }
+
+    /**
+     * @param word The next word, not smaller than the previous one.
+     * @return This builder.
+     * @throws IllegalArgumentException If the word is smaller than the previous one.
+     */
+    public DictionaryBuilder add(CharSequence word) {
+        if (root != 0)
+            throw new IllegalStateException("The machine has already been built");
+        int length = word.length();
+        int common = 0;
+        while (common < length && common < previousLength && word.charAt(common) == previous[common])
+            common++;
+        if (common < previousLength && (common == length || word.charAt(common) < previous[common]))
+            throw new IllegalArgumentException("Words are not sorted: " + word + " after "
+                    + new String(previous, 0, previousLength));
+        if (length == 0 || common == length && common == previousLength)
+            return this;
+        finish(common);
+        while (path.size() <= length)
+            path.add(new OpenState());
+        for (int depth = common; depth < length; depth++) {
+            path.get(depth + 1).clear();
+            path.get(depth).add(word.charAt(depth), 0);
+        }
+        path.get(length).accepting = true;
+        if (previous.length < length)
+            previous = Arrays.copyOf(previous, Math.max(length, 2 * previous.length));
+        for (int i = common; i < length; i++)
+            previous[i] = word.charAt(i);
+        previousLength = length;
+        return this;
+    }
+
+    /**
+     * Finishes the open states deeper than a depth, from the deepest up, and points the
+     * last transition of the state above each at the registered state.
+     */
+    private void finish(int depth) {
+        for (int d = previousLength; d > depth; d--) {
+            OpenState parent = path.get(d - 1);
+            parent.targets[parent.size - 1] = registerState(path.get(d));
+        }
+    }
+
+    /**
+     * @return The id of the registered state equivalent to an open state, which is added
+     * to the register if there is none yet.
+     */
+    private int registerState(OpenState state) {
+        int mask = register.length - 1;
+        int slot = hash(state.accepting, state.keys, state.targets, 0, state.size) & mask;
+        while (register[slot] != 0) {
+            if (sameAs(register[slot], state))
+                return register[slot];
+            slot = (slot + 1) & mask;
+        }
+        int id = stateCount++;
+        if (stateCount >= first.length) {
+            first = Arrays.copyOf(first, 2 * first.length);
+            accepting = Arrays.copyOf(accepting, first.length);
+        }
+        int from = first[id];
+        if (from + state.size > keys.length) {
+            int capacity = Math.max(2 * keys.length, from + state.size);
+            keys = Arrays.copyOf(keys, capacity);
+            targets = Arrays.copyOf(targets, capacity);
+        }
+        System.arraycopy(state.keys, 0, keys, from, state.size);
+        System.arraycopy(state.targets, 0, targets, from, state.size);
+        first[id + 1] = from + state.size;
+        accepting[id] = state.accepting;
+        register[slot] = id;
+        if (2 * ++registered > register.length)
+            growRegister();
+        return id;
+    }
+
+    private boolean sameAs(int id, OpenState state) {
+        int from = first[id];
+        if (accepting[id] != state.accepting || first[id + 1] - from != state.size)
+            return false;
+        for (int k = 0; k < state.size; k++)
+            if (keys[from + k] != state.keys[k] || targets[from + k] != state.targets[k])
+                return false;
+        return true;
+    }
+
+    private void growRegister() {
+        int[] grown = new int[2 * register.length];
+        int mask = grown.length - 1;
+        for (int id : register) {
+            if (id == 0)
+                continue;
+            int slot = hash(accepting[id], keys, targets, first[id], first[id + 1]) & mask;
+            while (grown[slot] != 0)
+                slot = (slot + 1) & mask;
+            grown[slot] = id;
+        }
+        register = grown;
+    }
+
+    private static int hash(boolean accepting, char[] keys, int[] targets, int from, int to) {
+        int h = accepting ? 1 : 0;
+        for (int k = from; k < to; k++)
+            h = 31 * (31 * h + keys[k]) + targets[k];
+        return h ^ h >>> 16;
+    }
+
+    /**
+     * Finishes the machine; no words can be added afterwards.
+     * @return The minimal machine, stored sparsely, with states named q1, q2 and so on.
+     * @throws IllegalArgumentException If no word was added.
+     */
+    public SparseStateMachine buildSparse() {
+        finishAll();
+        int edges = first[stateCount];
+        return SparseStateMachine.fromRows(Arrays.copyOf(first, stateCount + 1), Arrays.copyOf(keys, edges),
+                Arrays.copyOf(targets, edges), Arrays.copyOf(accepting, stateCount), root, null);
+    }
+
+    /**
+     * Finishes the machine; no words can be added afterwards. For very large word lists,
+     * buildSparse needs far less memory.
+     * @return The minimal machine, with states named q1, q2 and so on.
+     * @throws IllegalArgumentException If no word was added.
+     */
+    public StateMachine build() {
+        finishAll();
+        StateMachine.Builder builder = new StateMachine.Builder();
+        for (int s = 1; s < stateCount; s++)
+            builder.addState("q" + s);
+        for (int s = 1; s < stateCount; s++) {
+            for (int k = first[s]; k < first[s + 1]; k++)
+                builder.addTransition("q" + s, String.valueOf(keys[k]), "q" + targets[k]);
+            if (accepting[s])
+                builder.addAcceptingState("q" + s);
+        }
+        return builder.setInitialState("q" + root).build();
+    }
+
+    private void finishAll() {
+        if (root == 0) {
+            if (previousLength == 0)
+                throw new IllegalArgumentException("No words were added");
+            finish(0);
+            root = registerState(path.get(0));
+            path.clear();
+            register = null;
+        }
+    }
+}
@@ -0,0 +1,214 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Validates files holding one input per line, reading them through memory-mapped buffers.
+ * The file is cut into chunks that end on a newline, and the chunks are checked in parallel.
+ * Bytes are fed straight into the transition table and the machine is reset at every
+ * newline, so no String is ever created. Lines are decoded as UTF-8; an empty line is
+ * rejected, the same way checker rejects the empty string.
+ */
+public final class FileValidator {
+    private static final long DEFAULT_CHUNK_SIZE = 64L << 20;
+    private static final int SCAN_SIZE = 8192;
+
+    private final CompiledStateMachine machine;
+    private final long chunkSize;
+
+    /**
+     * Receives the verdict of each line. Lines of different chunks are reported from
+     * different threads, so implementations must be thread-safe.
+     */
+    public interface LineHandler {
+        /**
+         * @param offset The position in the file of the first byte of the line.
+         * @param accepted Whether the line is in the language of the machine.
+         */
+        void line(long offset, boolean accepted);
+    }
+
+    /**
+     * The number of accepted and rejected lines of a file.
+     */
+    public static final class Counts {
+        private final long accepted;
+        private final long rejected;
+
+        Counts(long accepted, long rejected) {
+            this.accepted = accepted;
+            this.rejected = rejected;
+        }
+
+        public long getAccepted() {
+            return accepted;
+        }
+
+        public long getRejected() {
+            return rejected;
+        }
+
+        @Override
+        public String toString() {
+            return accepted + " accepted, " + rejected + " rejected";
+        }
+    }
+
+    public FileValidator(CompiledStateMachine machine) {
+        this(machine, DEFAULT_CHUNK_SIZE);
+    }
+
+    /**
+     * @param machine The machine to check each line with. Use CompiledStateMachine.skipping
+     *                to ignore whitespace inside the lines.
+     * @param chunkSize The approximate number of bytes handed to each parallel task.
+     */
+    public FileValidator(CompiledStateMachine machine, long chunkSize) {
+        if (chunkSize <= 0 || chunkSize > Integer.MAX_VALUE)
+            throw new IllegalArgumentException("Chunk size must be between 1 and " + Integer.MAX_VALUE);
+        this.machine = machine;
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * Counts the accepted and rejected lines of a file.
+     * @param file The file to validate.
+     * @return The counts.
+     * @throws IOException If the file cannot be read.
+     */
+    public Counts validate(Path file) throws IOException {
+        return validate(file, null);
+    }
+
+    /**
+     * Validates every line of a file and reports each verdict to a handler.
+     * @param file The file to validate.
+     * @param handler The handler receiving the verdicts, or null to only count them.
+     * @return The counts.
+     * @throws IOException If the file cannot be read.
+     */
+    public Counts validate(Path file, LineHandler handler) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            List<Long> bounds = chunkBounds(channel);
+            List<Callable<long[]>> tasks = new ArrayList<>();
+            for (int i = 0; i + 1 < bounds.size(); i++) {
+                long from = bounds.get(i);
+                long to = bounds.get(i + 1);
+                tasks.add(() -> validateChunk(channel, from, to, handler));
+            }
+            long accepted = 0;
+            long rejected = 0;
+            for (Future<long[]> result : ForkJoinPool.commonPool().invokeAll(tasks)) {
+                long[] counts = get(result);
+                accepted += counts[0];
+                rejected += counts[1];
+            }
+            return new Counts(accepted, rejected);
+        }
+    }
+
+    private static long[] get(Future<long[]> result) throws IOException {
+        try {
+            return result.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while validating", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException)
+                throw (IOException) e.getCause();
+            throw new IOException(e.getCause());
+        }
+    }
+
+    /**
+     * Splits the file into chunks of about chunkSize bytes, each ending just after a newline
+     * (or at the end of the file).
+     */
+    private List<Long> chunkBounds(FileChannel channel) throws IOException {
+        long size = channel.size();
+        List<Long> bounds = new ArrayList<>();
+        bounds.add(0L);
+        ByteBuffer scan = ByteBuffer.allocate(SCAN_SIZE);
+        long start = 0;
+        while (size - start > chunkSize) {
+            long end = nextLineStart(channel, start + chunkSize, size, scan);
+            if (end - start > Integer.MAX_VALUE)
+                throw new IOException("Line starting near offset " + start + " is too long to map");
+            bounds.add(end);
+            start = end;
+        }
+        if (start < size)
+            bounds.add(size);
+        return bounds;
+    }
+
+    private static long nextLineStart(FileChannel channel, long position, long size, ByteBuffer scan)
+            throws IOException {
+        while (position < size) {
+            scan.clear();
+            int read = channel.read(scan, position);
+            if (read < 0)
+                break;
+            for (int i = 0; i < read; i++)
+                if (scan.get(i) == '\n')
+                    return position + i + 1;
+            position += read;
+        }
+        return size;
+    }
+
+    private long[] validateChunk(FileChannel channel, long from, long to, LineHandler handler)
+            throws IOException {
+        MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, from, to - from);
+        int limit = buffer.limit();
+        int initial = machine.getInitialState();
+        long accepted = 0;
+        long rejected = 0;
+        int state = initial;
+        int lineStart = 0;
+        for (int i = 0; i < limit; i++) {
+            byte b = buffer.get(i);
+            if (b == '\n') {
+                boolean verdict = i > lineStart && machine.isAccepting(state);
+                if (verdict)
+                    accepted++;
+                else
+                    rejected++;
+                if (handler != null)
+                    handler.line(from + lineStart, verdict);
+                state = initial;
+                lineStart = i + 1;
+            } else if (state != CompiledStateMachine.DEAD) {
+                if (b >= 0) {
+                    state = machine.step(state, (char) b);
+                } else {
+                    // a multi-byte character: hand it, with its continuation bytes, to the decoder
+                    int end = i + 1;
+                    while (end < limit && end - i < 4 && (buffer.get(end) & 0xC0) == 0x80)
+                        end++;
+                    state = machine.run(state, buffer, i, end);
+                    i = end - 1;
+                }
+            }
+        }
+        if (lineStart < limit) {
+            boolean verdict = machine.isAccepting(state);
+            if (verdict)
+                accepted++;
+            else
+                rejected++;
+            if (handler != null)
+                handler.line(from + lineStart, verdict);
+        }
+        return new long[]{accepted, rejected};
+    }
+}
@@ -0,0 +1,311 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A compiled machine that counts what happens while it runs, to find out why inputs are
+ * rejected and which states are hot. It counts the visits of every state, the uses of
+ * every transition (including the ones into the dead state, by state and symbol), the
+ * lengths of checked inputs in a power-of-two histogram, and the inputs, characters and
+ * time spent in checker.
+ * <p>
+ * Instrumentation is opt-in by engine: the machine it wraps, and every other engine, run
+ * exactly as before. The counters are LongAdders, which stripe increments over cells
+ * so that threads checking inputs at the same time do not contend on one counter. The
+ * counters of the transitions are only created when a transition is first used.
+ */
+public final class InstrumentedStateMachine implements Automaton {
+    private static final int BUCKETS = 32;
+
+    private final CompiledStateMachine machine;
+    private final int width;
+    private final LongAdder[] stateVisits;
+    private final AtomicReferenceArray<LongAdder> transitionHits;
+    private final LongAdder[] lengths = new LongAdder[BUCKETS];
+    private final LongAdder inputs = new LongAdder();
+    private final LongAdder accepted = new LongAdder();
+    private final LongAdder characters = new LongAdder();
+    private final LongAdder nanos = new LongAdder();
+
+    public InstrumentedStateMachine(CompiledStateMachine machine) {
+        this.machine = machine;
+        this.width = machine.getWidth();
+        stateVisits = new LongAdder[machine.getStateCount()];
+        for (int s = 0; s < stateVisits.length; s++)
+            stateVisits[s] = new LongAdder();
+        transitionHits = new AtomicReferenceArray<>(machine.getStateCount() * width);
+        for (int i = 0; i < BUCKETS; i++)
+            lengths[i] = new LongAdder();
+    }
+
+    /**
+     * Counts every state entered, so the initial state is counted once per input and a
+     * state with a loop once per character read in it.
+     */
+    @Override
+    public boolean checker(CharSequence input) {
+        long start = System.nanoTime();
+        int length = input.length();
+        int state = machine.getInitialState();
+        stateVisits[state].increment();
+        int read = 0;
+        while (read < length && state != DEAD)
+            state = step(state, input.charAt(read++));
+        boolean result = length != 0 && machine.isAccepting(state);
+        inputs.increment();
+        if (result)
+            accepted.increment();
+        characters.add(read);
+        lengths[bucket(length)].increment();
+        nanos.add(System.nanoTime() - start);
+        return result;
+    }
+
+    @Override
+    public int step(int state, char c) {
+        int symbol = machine.symbolOf(c);
+        int next = machine.next(state, symbol);
+        int cell = state * width + symbol;
+        LongAdder hits = transitionHits.get(cell);
+        if (hits == null) {
+            // Keep the adder that was put in the cell; a concurrent reset may clear it again.
+            LongAdder created = new LongAdder();
+            LongAdder witness = transitionHits.compareAndExchange(cell, null, created);
+            hits = witness == null ? created : witness;
+        }
+        hits.increment();
+        stateVisits[next].increment();
+        return next;
+    }
+
+    private static int bucket(int length) {
+        return BUCKETS - Integer.numberOfLeadingZeros(length);
+    }
+
+    @Override
+    public int getInitialState() {
+        return machine.getInitialState();
+    }
+
+    @Override
+    public boolean isAccepting(int state) {
+        return machine.isAccepting(state);
+    }
+
+    @Override
+    public int getStateCount() {
+        return machine.getStateCount();
+    }
+
+    @Override
+    public String getStateName(int state) {
+        return machine.getStateName(state);
+    }
+
+    /**
+     * @return The machine without instrumentation.
+     */
+    public CompiledStateMachine getMachine() {
+        return machine;
+    }
+
+    /**
+     * Reads all counters. Counting goes on while the snapshot is taken, so counters that
+     * are read later may include a few more inputs than counters that are read earlier.
+     * @return The current values of the counters.
+     */
+    public Snapshot snapshot() {
+        long[] visits = new long[stateVisits.length];
+        for (int s = 0; s < visits.length; s++)
+            visits[s] = stateVisits[s].sum();
+        List<TransitionCount> transitions = new ArrayList<>();
+        for (int cell = 0; cell < transitionHits.length(); cell++) {
+            LongAdder hits = transitionHits.get(cell);
+            if (hits == null)
+                continue;
+            int state = cell / width;
+            int symbol = cell % width;
+            transitions.add(new TransitionCount(machine.getStateName(state),
+                    symbol == 0 ? null : machine.getSymbolChars(symbol),
+                    machine.next(state, symbol) == DEAD ? null : machine.getStateName(machine.next(state, symbol)),
+                    hits.sum()));
+        }
+        long[] histogram = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++)
+            histogram[i] = lengths[i].sum();
+        String[] names = new String[visits.length];
+        for (int s = 0; s < names.length; s++)
+            names[s] = machine.getStateName(s);
+        return new Snapshot(names, visits, transitions, histogram, inputs.sum(), accepted.sum(),
+                characters.sum(), nanos.sum());
+    }
+
+    /**
+     * Sets every counter back to zero.
+     */
+    public void reset() {
+        for (LongAdder visits : stateVisits)
+            visits.reset();
+        for (int cell = 0; cell < transitionHits.length(); cell++)
+            transitionHits.set(cell, null);
+        for (LongAdder bucket : lengths)
+            bucket.reset();
+        inputs.reset();
+        accepted.reset();
+        characters.reset();
+        nanos.reset();
+    }
+
+    /**
+     * The number of times one transition was taken.
+     */
+    public static final class TransitionCount {
+        private final String current;
+        private final char[] symbols;
+        private final String next;
+        private final long hits;
+
+        TransitionCount(String current, char[] symbols, String next, long hits) {
+            this.current = current;
+            this.symbols = symbols;
+            this.next = next;
+            this.hits = hits;
+        }
+
+        public String getCurrent() {
+            return current;
+        }
+
+        /**
+         * @return The characters of the symbol, null for characters outside the alphabet.
+         */
+        public char[] getSymbols() {
+            return symbols == null ? null : symbols.clone();
+        }
+
+        /**
+         * @return The state reached, null for the dead state.
+         */
+        public String getNext() {
+            return next;
+        }
+
+        public boolean isDeadEntry() {
+            return next == null;
+        }
+
+        public long getHits() {
+            return hits;
+        }
+
+        @Override
+        public String toString() {
+            return current + "___" + (symbols == null ? "(unknown)" : new String(symbols)) + "___"
+                    + (next == null ? "(dead)" : next) + " " + hits;
+        }
+    }
+
+    /**
+     * The counters of an InstrumentedStateMachine at one point in time.
+     */
+    public static final class Snapshot {
+        private final String[] stateNames;
+        private final long[] stateVisits;
+        private final List<TransitionCount> transitions;
+        private final long[] lengthHistogram;
+        private final long inputs;
+        private final long accepted;
+        private final long characters;
+        private final long nanos;
+
+        Snapshot(String[] stateNames, long[] stateVisits, List<TransitionCount> transitions,
+                 long[] lengthHistogram, long inputs, long accepted, long characters, long nanos) {
+            this.stateNames = stateNames;
+            this.stateVisits = stateVisits;
+            this.transitions = Collections.unmodifiableList(transitions);
+            this.lengthHistogram = lengthHistogram;
+            this.inputs = inputs;
+            this.accepted = accepted;
+            this.characters = characters;
+            this.nanos = nanos;
+        }
+
+        /**
+         * @param state A state id.
+         * @return The number of times the state was entered.
+         */
+        public long getStateVisits(int state) {
+            return stateVisits[state];
+        }
+
+        public List<TransitionCount> getTransitions() {
+            return transitions;
+        }
+
+        /**
+         * @return The transitions into the dead state, which are where inputs got rejected.
+         */
+        public List<TransitionCount> getDeadEntries() {
+            List<TransitionCount> dead = new ArrayList<>();
+            for (TransitionCount t : transitions)
+                if (t.isDeadEntry())
+                    dead.add(t);
+            return dead;
+        }
+
+        /**
+         * @return The number of checked inputs by length: bucket 0 holds the empty inputs and
+         * bucket i the lengths from 2^(i-1) to 2^i - 1.
+         */
+        public long[] getLengthHistogram() {
+            return lengthHistogram.clone();
+        }
+
+        public long getInputs() {
+            return inputs;
+        }
+
+        public long getAccepted() {
+            return accepted;
+        }
+
+        /**
+         * @return The number of characters read; reading stops at the dead state.
+         */
+        public long getCharacters() {
+            return characters;
+        }
+
+        /**
+         * @return The total time spent in checker, in nanoseconds, over all threads.
+         */
+        public long getNanos() {
+            return nanos;
+        }
+
+        /**
+         * @return The counters in a plain text form, one per line.
+         */
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            sb.append("inputs ").append(inputs).append('\n');
+            sb.append("accepted ").append(accepted).append('\n');
+            sb.append("characters ").append(characters).append('\n');
+            sb.append("nanos ").append(nanos).append('\n');
+            sb.append("States\n");
+            for (int s = 0; s < stateVisits.length; s++)
+                sb.append(stateNames[s]).append(' ').append(stateVisits[s]).append('\n');
+            sb.append("Transitions\n");
+            for (TransitionCount t : transitions)
+                sb.append(t).append('\n');
+            sb.append("Lengths\n");
+            for (int i = 0; i < lengthHistogram.length; i++)
+                if (lengthHistogram[i] != 0)
+                    sb.append(i == 0 ? 0 : 1L << (i - 1)).append(' ').append(lengthHistogram[i]).append('\n');
+            return sb.toString();
+        }
+    }
+}
@@ -0,0 +1,119 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * Runs a NondeterministicStateMachine by determinizing it on the fly.
+ * Every set of NFA states met while checking input becomes a cached DFA state, and each
+ * transition between them is computed once and then read from a table, so repeated input
+ * runs at DFA speed. The cache holds at most maxStates sets; when it is full it is flushed
+ * and refilled from the current position, which bounds memory even for NFAs whose full
+ * subset construction would blow up. A LazyDfa is not thread-safe.
+ */
+public final class LazyDfa {
+    private static final int DEAD = 0;
+    private static final int UNKNOWN = -1;
+
+    private final NondeterministicStateMachine nfa;
+    private final int maxStates;
+    private final int width;
+    private final NondeterministicStateMachine.Scratch scratch;
+    private final HashMap<NondeterministicStateMachine.SetKey, Integer> index = new HashMap<>();
+    private final ArrayList<int[]> sets = new ArrayList<>();
+    private boolean[] accepting;
+    private int[] table;
+    private int initial;
+    private long flushes;
+
+    LazyDfa(NondeterministicStateMachine nfa, int maxStates) {
+        if (maxStates < 3)
+            throw new IllegalArgumentException("The cache must hold at least 3 states");
+        this.nfa = nfa;
+        this.maxStates = maxStates;
+        this.width = nfa.getWidth();
+        this.scratch = nfa.newScratch();
+        flush();
+    }
+
+    /**
+     * Checks if a given string is part of the language of the machine.
+     * As with StateMachine.checker, the empty string is never accepted.
+     * @param input The input characters.
+     * @return Boolean indicating whether or not the input is in the language.
+     */
+    public boolean checker(CharSequence input) {
+        int length = input.length();
+        if (length == 0)
+            return false;
+        int state = initial;
+        for (int i = 0; i < length; i++) {
+            int symbol = nfa.symbol(input.charAt(i));
+            if (symbol == 0)
+                return false;
+            int next = table[state * width + symbol];
+            if (next == UNKNOWN)
+                next = transition(state, symbol);
+            if (next == DEAD)
+                return false;
+            state = next;
+        }
+        return accepting[state];
+    }
+
+    /**
+     * @return The number of sets currently cached, including the empty set.
+     */
+    public int getCachedStateCount() {
+        return sets.size();
+    }
+
+    /**
+     * @return How often the cache has been flushed because it was full.
+     */
+    public long getFlushCount() {
+        return flushes;
+    }
+
+    private int transition(int state, int symbol) {
+        int[] next = nfa.step(sets.get(state), symbol, scratch);
+        NondeterministicStateMachine.SetKey key = new NondeterministicStateMachine.SetKey(next);
+        Integer id = index.get(key);
+        if (id == null) {
+            if (sets.size() >= maxStates) {
+                flushes++;
+                flush();
+                // the current state is gone, so the transition cannot be cached this time
+                id = index.get(key);
+                return id != null ? id : intern(key);
+            }
+            id = intern(key);
+        }
+        table[state * width + symbol] = id;
+        return id;
+    }
+
+    private void flush() {
+        index.clear();
+        sets.clear();
+        accepting = new boolean[Math.min(maxStates, 64)];
+        table = new int[accepting.length * width];
+        Arrays.fill(table, UNKNOWN);
+        intern(new NondeterministicStateMachine.SetKey(new int[0]));
+        Arrays.fill(table, 0, width, DEAD);
+        initial = intern(new NondeterministicStateMachine.SetKey(nfa.initialSet(scratch)));
+    }
+
+    private int intern(NondeterministicStateMachine.SetKey key) {
+        int id = sets.size();
+        if (id == accepting.length) {
+            int capacity = Math.min(maxStates, id * 2);
+            accepting = Arrays.copyOf(accepting, capacity);
+            table = Arrays.copyOf(table, capacity * width);
+            Arrays.fill(table, id * width, table.length, UNKNOWN);
+        }
+        sets.add(key.set);
+        index.put(key, id);
+        accepting[id] = nfa.isAccepting(key.set);
+        return id;
+    }
+}
@@ -0,0 +1,227 @@
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * Splits text into tokens with a machine whose accepting states are labelled with token types.
+ * Tokens are found by maximal munch: from the end of the previous token the machine runs
+ * as far as it can, and the longest prefix that ends in an accepting state is the next
+ * token. A lexer is built either from one labelled machine, or from one machine per token
+ * type, which are run together as their product; when several token machines accept the
+ * same text, the one given first wins. Tokens are reported as (type, start, end) triples
+ * and nothing is allocated per token. A lexer holds no state between calls, so it can be
+ * shared between threads.
+ */
+public final class Lexer {
+    private final CompiledStateMachine machine;
+    private final int[] typeOf;
+
+    /**
+     * Receives the tokens of a text, in order.
+     */
+    public interface TokenHandler {
+        /**
+         * @param type The token type.
+         * @param start The index of the first character of the token.
+         * @param end The index after the last character of the token.
+         */
+        void token(int type, int start, int end);
+    }
+
+    /**
+     * A reusable buffer of tokens, which only allocates when it has to grow.
+     */
+    public static final class TokenBuffer implements TokenHandler {
+        private int[] tokens = new int[3 * 16];
+        private int size;
+
+        @Override
+        public void token(int type, int start, int end) {
+            if (3 * size == tokens.length)
+                tokens = Arrays.copyOf(tokens, 2 * tokens.length);
+            tokens[3 * size] = type;
+            tokens[3 * size + 1] = start;
+            tokens[3 * size + 2] = end;
+            size++;
+        }
+
+        public int size() {
+            return size;
+        }
+
+        public int getType(int token) {
+            return tokens[3 * token];
+        }
+
+        public int getStart(int token) {
+            return tokens[3 * token + 1];
+        }
+
+        public int getEnd(int token) {
+            return tokens[3 * token + 2];
+        }
+
+        /**
+         * Empties the buffer, keeping its capacity.
+         */
+        public void clear() {
+            size = 0;
+        }
+    }
+
+    /**
+     * @param machine The machine recognising every token.
+     * @param typeOf The token type of each state, -1 for states that do not end a token.
+     */
+    Lexer(CompiledStateMachine machine, int[] typeOf) {
+        if (typeOf.length != machine.getStateCount())
+            throw new IllegalArgumentException("Expected a token type for each of the "
+                    + machine.getStateCount() + " states");
+        this.machine = machine;
+        this.typeOf = typeOf;
+    }
+
+    /**
+     * Builds a lexer from one machine per token type.
+     * @param tokens The machines; the type of the tokens of tokens[i] is i.
+     * @return The lexer.
+     */
+    public static Lexer of(StateMachine... tokens) {
+        CompiledStateMachine[] machines = new CompiledStateMachine[tokens.length];
+        for (int i = 0; i < tokens.length; i++)
+            machines[i] = tokens[i].compile();
+        ProductConstruction product = ProductConstruction.of(machines);
+        int[] typeOf = new int[product.getStateCount()];
+        boolean[] accepting = new boolean[typeOf.length];
+        for (int state = 0; state < typeOf.length; state++) {
+            typeOf[state] = -1;
+            for (int m = 0; m < machines.length && typeOf[state] < 0; m++)
+                if (product.accepts(state, m))
+                    typeOf[state] = m;
+            accepting[state] = typeOf[state] >= 0;
+        }
+        return new Lexer(product.toCompiled(accepting), typeOf);
+    }
+
+    /**
+     * Builds a lexer from a machine whose accepting states are labelled with token types.
+     * @param machine The machine recognising every token.
+     * @param types The token type of each accepting state, by state name.
+     * @return The lexer.
+     */
+    public static Lexer labelled(StateMachine machine, Map<String, Integer> types) {
+        CompiledStateMachine compiled = machine.compile();
+        int[] typeOf = new int[compiled.getStateCount()];
+        for (int state = 0; state < typeOf.length; state++) {
+            Integer type = types.get(compiled.getStateName(state));
+            if (compiled.isAccepting(state) && type == null)
+                throw new IllegalArgumentException("No token type for accepting state "
+                        + compiled.getStateName(state));
+            typeOf[state] = compiled.isAccepting(state) ? type : -1;
+        }
+        return new Lexer(compiled, typeOf);
+    }
+
+    /**
+     * Tokenizes a whole text.
+     * @param text The text.
+     * @param handler Receives the tokens.
+     * @return The index at which no token could be found, the length of the text if the
+     * whole text was split into tokens.
+     */
+    public int tokenize(CharSequence text, TokenHandler handler) {
+        return tokenize(text, 0, text.length(), handler);
+    }
+
+    /**
+     * Tokenizes part of a text. Reported positions are indices into the whole text.
+     * @param text The text.
+     * @param from The index of the first character.
+     * @param to The index after the last character.
+     * @param handler Receives the tokens.
+     * @return The index at which no token could be found, to if the whole range was split
+     * into tokens.
+     */
+    public int tokenize(CharSequence text, int from, int to, TokenHandler handler) {
+        if (from < 0 || to > text.length() || from > to)
+            throw new IndexOutOfBoundsException("Range out of bounds");
+        int start = from;
+        while (start < to) {
+            int state = machine.getInitialState();
+            int end = -1;
+            int type = -1;
+            for (int i = start; i < to; i++) {
+                state = machine.step(state, text.charAt(i));
+                if (state == Automaton.DEAD)
+                    break;
+                if (typeOf[state] >= 0) {
+                    end = i + 1;
+                    type = typeOf[state];
+                }
+            }
+            if (end < 0)
+                return start;
+            handler.token(type, start, end);
+            start = end;
+        }
+        return to;
+    }
+
+    /**
+     * Tokenizes a text and checks it against a machine in the same pass.
+     * Every character is fed to the grammar as the lexer reads it, and when the lexer goes
+     * back to the end of the longest token, the grammar goes back to the state it had there.
+     * The grammar therefore never needs a pass of its own; only the lookahead past the end
+     * of a token, which maximal munch always reads again, is fed twice. Tokenizing stops at
+     * the first token after which the grammar can no longer accept.
+     * @param text The text.
+     * @param grammar The machine the whole text has to be accepted by, for example the
+     *                calculator machine for calculator input.
+     * @param handler Receives the tokens.
+     * @return Whether the whole text was split into tokens and is accepted by the grammar.
+     */
+    public boolean validate(CharSequence text, Automaton grammar, TokenHandler handler) {
+        int to = text.length();
+        int start = 0;
+        int checked = grammar.getInitialState();
+        while (start < to) {
+            int state = machine.getInitialState();
+            int grammarState = checked;
+            int end = -1;
+            int type = -1;
+            for (int i = start; i < to; i++) {
+                char c = text.charAt(i);
+                state = machine.step(state, c);
+                if (state == Automaton.DEAD)
+                    break;
+                grammarState = grammar.step(grammarState, c);
+                if (typeOf[state] >= 0) {
+                    end = i + 1;
+                    type = typeOf[state];
+                    checked = grammarState;
+                }
+            }
+            if (end < 0)
+                return false;
+            handler.token(type, start, end);
+            if (checked == Automaton.DEAD)
+                return false;
+            start = end;
+        }
+        return to != 0 && grammar.isAccepting(checked);
+    }
+
+    /**
+     * @param state A state id of the machine.
+     * @return The token type of the state, -1 if it does not end a token.
+     */
+    public int getTokenType(int state) {
+        return typeOf[state];
+    }
+
+    /**
+     * @return The machine recognising every token.
+     */
+    public CompiledStateMachine getMachine() {
+        return machine;
+    }
+}
@@ -0,0 +1,250 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.BiConsumer;
+
+/**
+ * Named machines that can be replaced while they are in use.
+ * The registry publishes an immutable map from name to machine through a volatile field.
+ * Readers take the current map without locking; writers copy it, change the copy and
+ * publish the copy, one writer at a time. A check that has already looked up its machine
+ * finishes on that version, while checks that start after a swap use the new one.
+ * <p>
+ * Machines are loaded from files in the text format of readStateMachine, or in the binary
+ * format of MappedStateMachine, which is recognised by its magic number. A machine loaded
+ * from a file can be reloaded explicitly, or whenever the file changes once watch has been
+ * called. Loads and reloads of one name read and publish one at a time, so a slow read of
+ * an older version of a file cannot replace a newer one. A binary machine stays mapped while it is in use, so a new version should be
+ * written to another file and renamed over the old one rather than written in place.
+ */
+public final class MachineRegistry implements Closeable {
+    private volatile Map<String, Automaton> machines = Collections.emptyMap();
+    private final Object writeLock = new Object();
+    private final Map<String, Path> sources = new HashMap<>();
+    // Held while a file is read and published, so that reads of one slot publish in order.
+    private final Map<String, Object> slotLocks = new HashMap<>();
+    private final Set<Path> watchedDirectories = new HashSet<>();
+    private WatchService watchService;
+    private Thread watcher;
+
+    /**
+     * @param name The name of a machine.
+     * @return The current version of the machine, null if there is none.
+     */
+    public Automaton get(String name) {
+        return machines.get(name);
+    }
+
+    /**
+     * Checks an input against the current version of a machine.
+     * @param name The name of the machine.
+     * @param input The input characters.
+     * @return Boolean indicating whether or not the input is in the language.
+     * @throws IllegalArgumentException If there is no machine with that name.
+     */
+    public boolean checker(String name, CharSequence input) {
+        Automaton machine = machines.get(name);
+        if (machine == null)
+            throw new IllegalArgumentException("No machine named " + name);
+        return machine.checker(input);
+    }
+
+    /**
+     * @return The names of the machines, as of this call.
+     */
+    public Set<String> getNames() {
+        return machines.keySet();
+    }
+
+    /**
+     * Adds or replaces a machine that does not come from a file.
+     * @param name The name of the machine.
+     * @param machine The machine.
+     */
+    public void put(String name, Automaton machine) {
+        synchronized (writeLock) {
+            sources.remove(name);
+            publish(name, machine);
+        }
+    }
+
+    /**
+     * Adds or replaces a machine that does not come from a file.
+     * @param name The name of the machine.
+     * @param machine The machine.
+     */
+    public void put(String name, StateMachine machine) {
+        put(name, machine.compile());
+    }
+
+    /**
+     * Loads a machine from a file into a slot, replacing any machine in it.
+     * @param name The name of the machine.
+     * @param file A file in the text or binary format.
+     * @throws IOException If the file cannot be read; the slot is left unchanged.
+     */
+    public void load(String name, Path file) throws IOException {
+        Path source = file.toAbsolutePath();
+        synchronized (slotLock(name)) {
+            Automaton machine = read(source);
+            synchronized (writeLock) {
+                if (watchService != null)
+                    register(source.getParent());
+                sources.put(name, source);
+                publish(name, machine);
+            }
+        }
+    }
+
+    /**
+     * Reads the file of a machine again and swaps the new version in.
+     * If the file cannot be read or parsed, the old version stays in place.
+     * @param name The name of a machine loaded from a file.
+     * @throws IOException If the file cannot be read.
+     */
+    public void reload(String name) throws IOException {
+        synchronized (slotLock(name)) {
+            Path source;
+            synchronized (writeLock) {
+                source = sources.get(name);
+            }
+            if (source == null)
+                throw new IllegalArgumentException("No machine named " + name + " was loaded from a file");
+            Automaton machine = read(source);
+            synchronized (writeLock) {
+                // The slot may have been put or removed while the file was read.
+                if (source.equals(sources.get(name)))
+                    publish(name, machine);
+            }
+        }
+    }
+
+    private Object slotLock(String name) {
+        synchronized (writeLock) {
+            return slotLocks.computeIfAbsent(name, key -> new Object());
+        }
+    }
+
+    /**
+     * Removes a machine. Checks that already hold it still finish.
+     * @param name The name of the machine.
+     */
+    public void remove(String name) {
+        synchronized (writeLock) {
+            sources.remove(name);
+            if (!machines.containsKey(name))
+                return;
+            HashMap<String, Automaton> copy = new HashMap<>(machines);
+            copy.remove(name);
+            machines = Collections.unmodifiableMap(copy);
+        }
+    }
+
+    private void publish(String name, Automaton machine) {
+        HashMap<String, Automaton> copy = new HashMap<>(machines);
+        copy.put(name, machine);
+        machines = Collections.unmodifiableMap(copy);
+    }
+
+    private static Automaton read(Path file) throws IOException {
+        byte[] magic = new byte[4];
+        int read;
+        try (InputStream in = Files.newInputStream(file)) {
+            read = in.readNBytes(magic, 0, 4);
+        }
+        if (read == 4 && magic[0] == 'F' && magic[1] == 'S' && magic[2] == 'M' && magic[3] == 'B')
+            return MappedStateMachine.load(file);
+        return StateMachineReader.read(file).compile();
+    }
+
+    /**
+     * Starts a daemon thread that reloads a machine whenever its file is created or modified.
+     * Machines loaded later are watched as well. Calling this again has no effect.
+     * @param onFailure Called from the watching thread with the name of the machine and the
+     *                  exception when a changed file cannot be loaded, for example because
+     *                  it is only partly written; the old version stays in place.
+     * @throws IOException If the watch service cannot be started.
+     */
+    public void watch(BiConsumer<String, Exception> onFailure) throws IOException {
+        synchronized (writeLock) {
+            if (watchService != null)
+                return;
+            WatchService service = FileSystems.getDefault().newWatchService();
+            watchService = service;
+            for (Path source : sources.values())
+                register(source.getParent());
+            watcher = new Thread(() -> watchLoop(service, onFailure), "machine-registry-watcher");
+            watcher.setDaemon(true);
+            watcher.start();
+        }
+    }
+
+    private void register(Path directory) throws IOException {
+        if (watchedDirectories.add(directory))
+            directory.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_MODIFY);
+    }
+
+    private void watchLoop(WatchService service, BiConsumer<String, Exception> onFailure) {
+        try {
+            while (true) {
+                WatchKey key = service.take();
+                Path directory = (Path) key.watchable();
+                Set<String> changed = new HashSet<>();
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                        synchronized (writeLock) {
+                            changed.addAll(sources.keySet());
+                        }
+                        continue;
+                    }
+                    Path file = directory.resolve((Path) event.context());
+                    synchronized (writeLock) {
+                        for (Map.Entry<String, Path> source : sources.entrySet())
+                            if (source.getValue().equals(file))
+                                changed.add(source.getKey());
+                    }
+                }
+                key.reset();
+                for (String name : changed) {
+                    try {
+                        reload(name);
+                    } catch (IOException | RuntimeException e) {
+                        onFailure.accept(name, e);
+                    }
+                }
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            // Stopped by close.
+        }
+    }
+
+    /**
+     * Stops watching files. The machines stay available.
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (writeLock) {
+            if (watchService == null)
+                return;
+            watchService.close();
+            watcher.interrupt();
+            watchService = null;
+            watcher = null;
+            watchedDirectories.clear();
+        }
+    }
+}
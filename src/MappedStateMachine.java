@@ -0,0 +1,332 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A compiled machine stored in a versioned binary format and run directly from its bytes.
+ * Loading a file only maps it into memory and checks the header, the sizes of the sections
+ * and the page index, so start-up takes the same time whatever the size of the machine and
+ * the operating system pages the table in as it is used. A truncated file is refused with
+ * a StateMachineFormatException at load time; the ids in the class pages, the table and
+ * the names are only checked by verify, which reads the whole machine once, so call it on
+ * files that may be corrupt. All values are little-endian; the layout is
+ * <pre>
+ *   header      magic "FSMB", version, state count, width, initial state,
+ *               class pages length, name bytes length, reserved       (8 ints)
+ *   index       256 ints, the offset in the class pages of each page of chars
+ *   class pages int per character of each stored page, the symbol id of that character
+ *   accepting   bitset over the state ids, in longs (8-byte aligned)
+ *   table       int per state and symbol, the next state id
+ *   names       int offsets of each state name, then the names in UTF-8
+ * </pre>
+ * The symbol map is the two-level table of CharClassMap. Files larger than 2 GB are not
+ * supported.
+ * <p>
+ * The bytes are never copied onto the heap, which keeps large tables away from the
+ * garbage collector: a machine runs from a file mapped read-only, whose pages are shared
+ * by every process that maps it, or from native memory through offHeap.
+ */
+public final class MappedStateMachine implements Automaton {
+    public static final int VERSION = 2;
+    private static final int MAGIC = 'F' | 'S' << 8 | 'M' << 16 | 'B' << 24;
+    private static final int HEADER_INTS = 8;
+
+    private final ByteBuffer data;
+    private final int stateCount;
+    private final int width;
+    private final int initialState;
+    private final IntBuffer index;
+    private final IntBuffer classPages;
+    private final LongBuffer accepting;
+    private final IntBuffer table;
+    private final IntBuffer nameOffsets;
+    private final int namesStart;
+
+    /**
+     * @throws StateMachineFormatException If the header or the page index is malformed, or
+     * the buffer is shorter than the header says.
+     */
+    private MappedStateMachine(ByteBuffer buffer) {
+        data = buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        if (data.limit() < HEADER_INTS * 4 || data.getInt(0) != MAGIC)
+            throw new StateMachineFormatException("Not a binary state machine");
+        if (data.getInt(4) != VERSION)
+            throw new StateMachineFormatException("Unsupported binary state machine version " + data.getInt(4));
+        stateCount = data.getInt(8);
+        width = data.getInt(12);
+        initialState = data.getInt(16);
+        int pagesLength = data.getInt(20);
+        int nameBytes = data.getInt(24);
+        if (stateCount < 1 || width < 1 || pagesLength < CharClassMap.PAGE_SIZE
+                || pagesLength % CharClassMap.PAGE_SIZE != 0 || nameBytes < 0)
+            throw new StateMachineFormatException("Malformed binary state machine header");
+        if (initialState < 0 || initialState >= stateCount)
+            throw new StateMachineFormatException("Initial state " + initialState + " out of range");
+        // In longs, so that a corrupt header cannot make the sizes overflow.
+        int indexStart = HEADER_INTS * 4;
+        int pagesStart = indexStart + 4 * CharClassMap.PAGE_SIZE;
+        long acceptingStart = align(pagesStart + 4L * pagesLength);
+        long tableStart = acceptingStart + 8L * words(stateCount);
+        long namesOffsetsStart = tableStart + 4L * stateCount * width;
+        long end = namesOffsetsStart + 4L * (stateCount + 1) + nameBytes;
+        if (end > data.limit())
+            throw new StateMachineFormatException("Truncated binary state machine");
+        namesStart = (int) namesOffsetsStart + 4 * (stateCount + 1);
+        index = slice(indexStart, 4 * CharClassMap.PAGE_SIZE).asIntBuffer();
+        classPages = slice(pagesStart, 4 * pagesLength).asIntBuffer();
+        accepting = slice((int) acceptingStart, 8 * words(stateCount)).asLongBuffer();
+        table = slice((int) tableStart, 4 * stateCount * width).asIntBuffer();
+        nameOffsets = slice((int) namesOffsetsStart, 4 * (stateCount + 1)).asIntBuffer();
+
+        for (int page = 0; page < CharClassMap.PAGE_SIZE; page++) {
+            int offset = index.get(page);
+            if (offset < 0 || offset % CharClassMap.PAGE_SIZE != 0 || offset >= pagesLength)
+                throw new StateMachineFormatException("Page " + page + " out of range");
+        }
+    }
+
+    /**
+     * Checks that every class id, table cell and state name offset is in range, so that a
+     * corrupt machine is refused up front instead of failing in step. This reads the whole
+     * machine, which takes time in proportion to its size and pages in all of a mapped file.
+     * @return This machine.
+     * @throws StateMachineFormatException If an id or offset is out of range.
+     */
+    public MappedStateMachine verify() {
+        int pagesLength = classPages.limit();
+        for (int i = 0; i < pagesLength; i++)
+            if (classPages.get(i) < 0 || classPages.get(i) >= width)
+                throw new StateMachineFormatException("Class id " + classPages.get(i) + " out of range");
+        int cells = stateCount * width;
+        for (int cell = 0; cell < cells; cell++)
+            if (table.get(cell) < 0 || table.get(cell) >= stateCount)
+                throw new StateMachineFormatException("State " + cell / width + " has a transition to "
+                        + table.get(cell) + ", out of range");
+        if (nameOffsets.get(0) != 0 || nameOffsets.get(stateCount) != data.getInt(24))
+            throw new StateMachineFormatException("Malformed state names");
+        for (int s = 0; s < stateCount; s++)
+            if (nameOffsets.get(s + 1) < nameOffsets.get(s))
+                throw new StateMachineFormatException("Malformed state names");
+        return this;
+    }
+
+    /**
+     * Maps a binary machine file into memory.
+     * @param file The file written by write.
+     * @return The machine, backed by the mapped file.
+     * @throws IOException If the file cannot be read.
+     * @throws StateMachineFormatException If the file is not a binary machine or is truncated.
+     */
+    public static MappedStateMachine load(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            return new MappedStateMachine(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    /**
+     * Uses a binary machine that is already in memory, from its position to its limit.
+     * @param buffer The bytes written by write.
+     * @return The machine, backed by the buffer.
+     * @throws StateMachineFormatException If the bytes are not a binary machine or are truncated.
+     */
+    public static MappedStateMachine wrap(ByteBuffer buffer) {
+        return new MappedStateMachine(buffer.slice());
+    }
+
+    /**
+     * Writes a compiled machine in the binary format. The file is written through a mapping
+     * of it, so the machine is not copied onto the heap first.
+     * @param machine The machine to write.
+     * @param file The file to write to; it is replaced if it exists.
+     * @throws IOException If the file cannot be written.
+     */
+    public static void write(CompiledStateMachine machine, Path file) throws IOException {
+        create(machine, file);
+    }
+
+    /**
+     * Writes a compiled machine to a file and keeps running it from the mapping. Other
+     * processes that load the same file share its pages in memory with this one.
+     * @param machine The machine to write.
+     * @param file The file to write to; it is replaced if it exists.
+     * @return The machine, backed by the mapped file.
+     * @throws IOException If the file cannot be written.
+     */
+    public static MappedStateMachine create(CompiledStateMachine machine, Path file) throws IOException {
+        byte[][] names = encodeNames(machine);
+        int size = size(machine, names);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            MappedByteBuffer out = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            encode(machine, names, out);
+            out.force();
+            return new MappedStateMachine(out.asReadOnlyBuffer().position(0));
+        }
+    }
+
+    /**
+     * Copies a compiled machine into native memory, outside the Java heap, so that the
+     * garbage collector never copies or scans its table. The memory is freed when the
+     * returned machine is no longer reachable.
+     * @param machine The machine to copy.
+     * @return The machine, backed by a direct buffer.
+     */
+    public static MappedStateMachine offHeap(CompiledStateMachine machine) {
+        byte[][] names = encodeNames(machine);
+        ByteBuffer out = ByteBuffer.allocateDirect(size(machine, names));
+        encode(machine, names, out);
+        return new MappedStateMachine(out.flip());
+    }
+
+    /**
+     * @param machine The machine to encode.
+     * @return A heap buffer holding the machine in the binary format.
+     */
+    public static ByteBuffer toBytes(CompiledStateMachine machine) {
+        byte[][] names = encodeNames(machine);
+        ByteBuffer out = ByteBuffer.allocate(size(machine, names));
+        encode(machine, names, out);
+        return out.flip();
+    }
+
+    private static byte[][] encodeNames(CompiledStateMachine machine) {
+        String[] names = machine.stateNames();
+        byte[][] encoded = new byte[names.length][];
+        for (int s = 0; s < names.length; s++)
+            encoded[s] = names[s].getBytes(StandardCharsets.UTF_8);
+        return encoded;
+    }
+
+    /**
+     * @return The number of bytes of the binary form of a machine.
+     */
+    private static int size(CompiledStateMachine machine, byte[][] names) {
+        int states = names.length;
+        long nameBytes = 0;
+        for (byte[] name : names)
+            nameBytes += name.length;
+        int mapEnd = HEADER_INTS * 4 + 4 * CharClassMap.PAGE_SIZE + 4 * machine.classes().pages().length;
+        long size = align(mapEnd) + 8L * words(states) + 4L * machine.table().length + 4L * (states + 1) + nameBytes;
+        if (size > Integer.MAX_VALUE)
+            throw new IllegalArgumentException("Machine is too large for the binary format");
+        return (int) size;
+    }
+
+    /**
+     * Writes the binary form of a machine into a buffer, from index 0, leaving the position
+     * of the buffer after the last byte.
+     */
+    private static void encode(CompiledStateMachine machine, byte[][] names, ByteBuffer out) {
+        int[] pageIndex = machine.classes().index();
+        int[] pages = machine.classes().pages();
+        int[] cells = machine.table();
+        int states = names.length;
+        int nameBytes = 0;
+        for (byte[] name : names)
+            nameBytes += name.length;
+        int mapEnd = HEADER_INTS * 4 + 4 * pageIndex.length + 4 * pages.length;
+        int acceptingStart = (int) align(mapEnd);
+        int tableStart = acceptingStart + 8 * words(states);
+        out.order(ByteOrder.LITTLE_ENDIAN).position(0);
+        out.putInt(MAGIC).putInt(VERSION).putInt(states).putInt(machine.getWidth())
+                .putInt(machine.getInitialState()).putInt(pages.length).putInt(nameBytes).putInt(0);
+        out.asIntBuffer().put(pageIndex).put(pages);
+        long[] acceptWords = new long[words(states)];
+        for (int s = 0; s < states; s++)
+            if (machine.isAccepting(s))
+                acceptWords[s >>> 6] |= 1L << s;
+        out.position(acceptingStart);
+        out.asLongBuffer().put(acceptWords);
+        out.position(tableStart);
+        out.asIntBuffer().put(cells);
+        out.position(tableStart + 4 * cells.length);
+        int offset = 0;
+        for (byte[] name : names) {
+            out.putInt(offset);
+            offset += name.length;
+        }
+        out.putInt(offset);
+        for (byte[] name : names)
+            out.put(name);
+    }
+
+    /**
+     * Copies the machine back onto the heap, for example to turn it into text with
+     * toCompiled().toStateMachine().toString().
+     * @return The compiled machine.
+     */
+    public CompiledStateMachine toCompiled() {
+        int[] pageIndex = new int[index.limit()];
+        index.get(0, pageIndex);
+        int[] pages = new int[classPages.limit()];
+        classPages.get(0, pages);
+        int[] cells = new int[table.limit()];
+        table.get(0, cells);
+        boolean[] acceptingStates = new boolean[stateCount];
+        String[] names = new String[stateCount];
+        for (int s = 0; s < stateCount; s++) {
+            acceptingStates[s] = isAccepting(s);
+            names[s] = getStateName(s);
+        }
+        return CompiledStateMachine.of(cells, width, new CharClassMap(pageIndex, pages), acceptingStates,
+                initialState, names);
+    }
+
+    @Override
+    public int getInitialState() {
+        return initialState;
+    }
+
+    @Override
+    public int step(int state, char c) {
+        return table.get(state * width + classPages.get(index.get(c >>> 8) + (c & 0xFF)));
+    }
+
+    @Override
+    public boolean isAccepting(int state) {
+        return (accepting.get(state >>> 6) & 1L << state) != 0;
+    }
+
+    @Override
+    public int getStateCount() {
+        return stateCount;
+    }
+
+    /**
+     * Decodes the name of a state; names are only read from the buffer when asked for.
+     */
+    @Override
+    public String getStateName(int state) {
+        int from = nameOffsets.get(state);
+        int to = nameOffsets.get(state + 1);
+        byte[] name = new byte[to - from];
+        for (int i = 0; i < name.length; i++)
+            name[i] = data.get(namesStart + from + i);
+        return new String(name, StandardCharsets.UTF_8);
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    private ByteBuffer slice(int start, int length) {
+        ByteBuffer view = data.duplicate();
+        view.position(start).limit(start + length);
+        return view.slice().order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    private static long align(long offset) {
+        return (offset + 7) & ~7L;
+    }
+
+    private static int words(int states) {
+        return (states + 63) >>> 6;
+    }
+}
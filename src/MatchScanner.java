@@ -0,0 +1,380 @@
+import java.util.Arrays;
+
+/**
+ * Finds the substrings of a text that an Automaton accepts, the way a log scanner or a
+ * lexer does, instead of checking the text as a whole.
+ * A run of the machine is started at every position, and runs that reach the same state
+ * are merged into one thread per state, so a step costs at most one transition per state
+ * of the machine. No run is ever restarted from an earlier position, so scanning takes
+ * time linear in the length of the text in both modes, and memory that does not grow with it.
+ * Matches are never empty, the same way checker never accepts the empty string.
+ * A scanner reuses its arrays between scans, so it is not thread-safe.
+ */
+public final class MatchScanner {
+    /**
+     * The number of positions a LEFTMOST_LONGEST scanner buffers unless told otherwise.
+     */
+    public static final int DEFAULT_LOOKAHEAD = 1 << 13;
+
+    private final Automaton machine;
+    private final Mode mode;
+    private final int lookahead;
+    private final State[] states;
+    private int[] active;
+    private int[] nextActive;
+    private final int[] startOf;
+    private final int[] nextStartOf;
+
+    // For LEFTMOST_LONGEST: the states of the threads at each position of a segment, as
+    // compressed rows, and the longest match starting at each position.
+    private final boolean[] member;
+    private int[] rowStart = new int[64];
+    private int[] rows = new int[64];
+    private int[] longestEnd = new int[64];
+    private int[] longestState = new int[64];
+    private final int[] endOf;
+    private final int[] nextEndOf;
+    private final int[] acceptOf;
+    private final int[] nextAcceptOf;
+
+    /**
+     * Which matches a scan reports.
+     */
+    public enum Mode {
+        /**
+         * Non-overlapping matches: among the matches that start at or after the end of the
+         * previous one, the one that starts first, and the longest of those.
+         * Whether a match can still be extended may depend on characters far past its end,
+         * so the text is read in two passes over segments: forwards to record which states
+         * the threads are in at each position, and backwards to find the end of the longest
+         * match from each position. A segment ends where every thread has died.
+         * At most lookahead positions are buffered, so memory is bounded by the lookahead
+         * times the number of states. When a segment grows that long, the first half of it
+         * is decided with what has been read so far, as if the text ended there. A match
+         * can only be cut short that way if it is longer than half the lookahead, and it
+         * then ends at the last accepting position read.
+         */
+        LEFTMOST_LONGEST,
+        /**
+         * One match for every position at which some accepted substring ends, with the
+         * earliest start of a substring ending there. The text is read exactly once.
+         */
+        ALL
+    }
+
+    /**
+     * Receives the matches of a scan, in order of their end.
+     */
+    public interface MatchHandler {
+        /**
+         * @param start The index of the first character of the match.
+         * @param end The index after the last character of the match.
+         * @param state The id of the accepting state the match ends in.
+         */
+        void match(int start, int end, int state);
+    }
+
+    /**
+     * A reusable buffer of matches, which only allocates when it has to grow.
+     */
+    public static final class MatchBuffer implements MatchHandler {
+        private int[] matches = new int[3 * 16];
+        private int size;
+
+        @Override
+        public void match(int start, int end, int state) {
+            if (3 * size == matches.length)
+                matches = Arrays.copyOf(matches, 2 * matches.length);
+            matches[3 * size] = start;
+            matches[3 * size + 1] = end;
+            matches[3 * size + 2] = state;
+            size++;
+        }
+
+        public int size() {
+            return size;
+        }
+
+        public int getStart(int match) {
+            return matches[3 * match];
+        }
+
+        public int getEnd(int match) {
+            return matches[3 * match + 1];
+        }
+
+        public int getState(int match) {
+            return matches[3 * match + 2];
+        }
+
+        /**
+         * Empties the buffer, keeping its capacity.
+         */
+        public void clear() {
+            size = 0;
+        }
+    }
+
+    public MatchScanner(Automaton machine, Mode mode) {
+        this(machine, mode, DEFAULT_LOOKAHEAD);
+    }
+
+    /**
+     * @param machine The machine whose accepted substrings are searched for.
+     * @param mode Which matches to report.
+     * @param lookahead How many positions a LEFTMOST_LONGEST scan may buffer, at least 2.
+     */
+    public MatchScanner(Automaton machine, Mode mode, int lookahead) {
+        if (lookahead < 2)
+            throw new IllegalArgumentException("Lookahead must be at least 2");
+        this.machine = machine;
+        this.mode = mode;
+        this.lookahead = lookahead;
+        int count = machine.getStateCount();
+        states = new State[count];
+        for (int s = 0; s < count; s++)
+            states[s] = new State(machine.getStateName(s));
+        active = new int[count];
+        nextActive = new int[count];
+        startOf = new int[count];
+        nextStartOf = new int[count];
+        Arrays.fill(startOf, -1);
+        Arrays.fill(nextStartOf, -1);
+        member = new boolean[count];
+        endOf = new int[count];
+        nextEndOf = new int[count];
+        acceptOf = new int[count];
+        nextAcceptOf = new int[count];
+    }
+
+    /**
+     * Scans a whole text.
+     * @param text The text to search.
+     * @param handler Receives the matches.
+     */
+    public void scan(CharSequence text, MatchHandler handler) {
+        scan(text, 0, text.length(), handler);
+    }
+
+    /**
+     * Scans part of a text. Reported positions are indices into the whole text.
+     * @param text The text to search.
+     * @param from The index of the first character to search.
+     * @param to The index after the last character to search.
+     * @param handler Receives the matches.
+     */
+    public void scan(CharSequence text, int from, int to, MatchHandler handler) {
+        if (from < 0 || to > text.length() || from > to)
+            throw new IndexOutOfBoundsException("Range out of bounds");
+        if (mode == Mode.ALL)
+            scanAll(text, from, to, handler);
+        else
+            scanLeftmostLongest(text, from, to, handler);
+    }
+
+    private void scanAll(CharSequence text, int from, int to, MatchHandler handler) {
+        int count = 0;
+        for (int i = from; i < to; i++) {
+            count = start(count, i);
+            count = advance(count, text.charAt(i), Integer.MAX_VALUE);
+            int best = -1;
+            for (int k = 0; k < count; k++) {
+                int s = active[k];
+                if (machine.isAccepting(s) && (best < 0 || startOf[s] < startOf[best]))
+                    best = s;
+            }
+            if (best >= 0)
+                handler.match(startOf[best], i + 1, best);
+        }
+        clear(count);
+    }
+
+    private void scanLeftmostLongest(CharSequence text, int from, int to, MatchHandler handler) {
+        int initial = machine.getInitialState();
+        int segment = from;
+        int resume = from;
+        int size = 0;
+        int count = 0;
+        for (int i = from; i < to; i++) {
+            // The states at position i: those of the threads still running, and the initial one.
+            if (!member[initial]) {
+                member[initial] = true;
+                active[count++] = initial;
+            }
+            int row = i - segment;
+            if (row + 1 >= rowStart.length)
+                rowStart = Arrays.copyOf(rowStart, 2 * rowStart.length);
+            if (size + count > rows.length)
+                rows = Arrays.copyOf(rows, Math.max(2 * rows.length, size + count));
+            rowStart[row] = size;
+            System.arraycopy(active, 0, rows, size, count);
+            size += count;
+            rowStart[row + 1] = size;
+
+            char c = text.charAt(i);
+            int nextCount = 0;
+            for (int k = 0; k < count; k++)
+                member[active[k]] = false;
+            for (int k = 0; k < count; k++) {
+                int next = machine.step(active[k], c);
+                if (next != Automaton.DEAD && !member[next]) {
+                    member[next] = true;
+                    nextActive[nextCount++] = next;
+                }
+            }
+            int[] swap = active;
+            active = nextActive;
+            nextActive = swap;
+            count = nextCount;
+            // No run crosses a position at which every thread has died.
+            if (count == 0 || i + 1 == to) {
+                resume = closeSegment(text, segment, i + 1, count, i + 1, resume, handler);
+                segment = i + 1;
+                size = 0;
+            } else if (i + 1 - segment == lookahead) {
+                // Decide the first half of the segment now and keep the rows of the second.
+                int half = segment + lookahead / 2;
+                resume = closeSegment(text, segment, i + 1, count, half, resume, handler);
+                int kept = rowStart[half - segment];
+                System.arraycopy(rows, kept, rows, 0, size - kept);
+                for (int r = half - segment; r <= i + 1 - segment; r++)
+                    rowStart[r - (half - segment)] = rowStart[r] - kept;
+                size -= kept;
+                segment = half;
+            }
+        }
+        for (int k = 0; k < count; k++)
+            member[active[k]] = false;
+    }
+
+    /**
+     * Goes back over a segment to find the longest match starting at each of its positions,
+     * then reports the leftmost longest matches in it that start before decided.
+     * @param end The position after the segment; count threads are still running there.
+     * @param decided The position of the first start that is left for later.
+     * @param resume The position at which the next match may start.
+     * @return The position at which the next match may start.
+     */
+    private int closeSegment(CharSequence text, int segment, int end, int count, int decided,
+                             int resume, MatchHandler handler) {
+        int length = end - segment;
+        if (length > longestEnd.length) {
+            longestEnd = new int[Math.max(length, 2 * longestEnd.length)];
+            longestState = new int[longestEnd.length];
+        }
+        // endOf[s] is the end of the longest accepted run from s at the current position.
+        int[] endNext = nextEndOf;
+        int[] acceptNext = nextAcceptOf;
+        int[] endHere = endOf;
+        int[] acceptHere = acceptOf;
+        for (int k = 0; k < count; k++) {
+            int s = active[k];
+            endNext[s] = machine.isAccepting(s) ? end : -1;
+            acceptNext[s] = s;
+        }
+        int initial = machine.getInitialState();
+        for (int i = end - 1; i >= segment; i--) {
+            char c = text.charAt(i);
+            int row = i - segment;
+            for (int k = rowStart[row]; k < rowStart[row + 1]; k++) {
+                int s = rows[k];
+                int next = machine.step(s, c);
+                if (next != Automaton.DEAD && endNext[next] >= 0) {
+                    endHere[s] = endNext[next];
+                    acceptHere[s] = acceptNext[next];
+                } else {
+                    endHere[s] = machine.isAccepting(s) ? i : -1;
+                    acceptHere[s] = s;
+                }
+            }
+            // Matches are not empty, so the longest one starts with a step from the initial state.
+            int next = machine.step(initial, c);
+            longestEnd[row] = next == Automaton.DEAD ? -1 : endNext[next];
+            longestState[row] = next == Automaton.DEAD ? -1 : acceptNext[next];
+            int[] swap = endNext;
+            endNext = endHere;
+            endHere = swap;
+            swap = acceptNext;
+            acceptNext = acceptHere;
+            acceptHere = swap;
+        }
+        for (int i = Math.max(segment, resume); i < decided; i++) {
+            int matchEnd = longestEnd[i - segment];
+            if (matchEnd >= 0) {
+                handler.match(i, matchEnd, longestState[i - segment]);
+                resume = matchEnd;
+                i = matchEnd - 1;
+            }
+        }
+        return resume;
+    }
+
+    /**
+     * Adds a thread in the initial state that starts at the given position, unless a
+     * thread that started earlier is already in that state.
+     * @return The new number of threads.
+     */
+    private int start(int count, int position) {
+        int initial = machine.getInitialState();
+        if (startOf[initial] < 0) {
+            startOf[initial] = position;
+            active[count++] = initial;
+        }
+        return count;
+    }
+
+    /**
+     * Moves every thread over one character. Threads that die or started after the given
+     * limit are dropped, and threads that meet in a state keep the earliest start.
+     * @return The new number of threads.
+     */
+    private int advance(int count, char c, int latestStart) {
+        int nextCount = 0;
+        for (int k = 0; k < count; k++) {
+            int s = active[k];
+            int start = startOf[s];
+            startOf[s] = -1;
+            if (start > latestStart)
+                continue;
+            int next = machine.step(s, c);
+            if (next == Automaton.DEAD)
+                continue;
+            if (nextStartOf[next] < 0) {
+                nextStartOf[next] = start;
+                nextActive[nextCount++] = next;
+            } else if (start < nextStartOf[next]) {
+                nextStartOf[next] = start;
+            }
+        }
+        int[] swap = active;
+        active = nextActive;
+        nextActive = swap;
+        for (int k = 0; k < nextCount; k++) {
+            int s = active[k];
+            startOf[s] = nextStartOf[s];
+            nextStartOf[s] = -1;
+        }
+        return nextCount;
+    }
+
+    private void clear(int count) {
+        for (int k = 0; k < count; k++)
+            startOf[active[k]] = -1;
+    }
+
+    /**
+     * @param state A state id reported to a MatchHandler.
+     * @return The state, shared between calls.
+     */
+    public State getState(int state) {
+        return states[state];
+    }
+
+    public Mode getMode() {
+        return mode;
+    }
+
+    public int getLookahead() {
+        return lookahead;
+    }
+}
@@ -0,0 +1,258 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * The result of minimizing a StateMachine with Hopcroft's partition refinement.
+ * The minimized machine keeps only reachable states, drops the states from which no
+ * accepting state can be reached (they behave like the dead state), and merges equivalent
+ * states. Each merged state is named after one of its members, and the full list of
+ * original states behind it stays available for diagnostics.
+ */
+public final class Minimization {
+    private final StateMachine original;
+    private final StateMachine minimized;
+    private final HashMap<String, List<State>> members;
+
+    private Minimization(StateMachine original, StateMachine minimized, HashMap<String, List<State>> members) {
+        this.original = original;
+        this.minimized = minimized;
+        this.members = members;
+    }
+
+    /**
+     * Minimizes a machine in O(n * k * log n) time, where k is the number of classes of
+     * characters that the compiled machine has.
+     * @param sm The machine to minimize.
+     * @return The minimized machine together with the mapping to the original states.
+     */
+    public static Minimization of(StateMachine sm) {
+        CompiledStateMachine machine = sm.compile();
+        int width = machine.getWidth();
+
+        // Number the reachable states 0..m-1, keeping the dead state at 0.
+        int[] compact = new int[machine.getStateCount()];
+        Arrays.fill(compact, -1);
+        compact[CompiledStateMachine.DEAD] = 0;
+        int[] queue = new int[machine.getStateCount()];
+        int m = 0;
+        queue[m++] = CompiledStateMachine.DEAD;
+        compact[machine.getInitialState()] = 0;
+        queue[m++] = machine.getInitialState();
+        for (int head = 1; head < m; head++)
+            for (int symbol = 1; symbol < width; symbol++) {
+                int next = machine.next(queue[head], symbol);
+                if (compact[next] < 0) {
+                    compact[next] = 0;
+                    queue[m++] = next;
+                }
+            }
+        Arrays.sort(queue, 0, m);
+        for (int i = 0; i < m; i++)
+            compact[queue[i]] = i;
+        int[] originalOf = Arrays.copyOf(queue, m);
+
+        int[] blockOf = refine(machine, originalOf, compact, width);
+
+        // One new state per block, named after its first member; the block of the dead state is dropped.
+        int deadBlock = blockOf[0];
+        State[] blockStates = new State[m];
+        int[] representative = new int[m];
+        HashMap<String, List<State>> members = new HashMap<>();
+        ArrayList<State> states = new ArrayList<>();
+        for (int i = 1; i < m; i++) {
+            int block = blockOf[i];
+            if (block == deadBlock && originalOf[i] != machine.getInitialState())
+                continue;
+            if (blockStates[block] == null) {
+                blockStates[block] = new State(machine.getStateName(originalOf[i]));
+                representative[block] = i;
+                states.add(blockStates[block]);
+                members.put(blockStates[block].getName(), new ArrayList<>());
+            }
+            members.get(blockStates[block].getName()).add(new State(machine.getStateName(originalOf[i])));
+        }
+
+        // Each symbol is a class of characters, which all get their own transition.
+        String[][] inputs = new String[width][];
+        for (int symbol = 1; symbol < width; symbol++) {
+            char[] chars = machine.getSymbolChars(symbol);
+            inputs[symbol] = new String[chars.length];
+            for (int i = 0; i < chars.length; i++)
+                inputs[symbol][i] = String.valueOf(chars[i]);
+        }
+        ArrayList<Transition> transitions = new ArrayList<>();
+        ArrayList<State> accepting = new ArrayList<>();
+        for (int block = 0; block < m; block++) {
+            State state = blockStates[block];
+            if (state == null)
+                continue;
+            int from = originalOf[representative[block]];
+            if (machine.isAccepting(from))
+                accepting.add(state);
+            if (block == deadBlock)
+                continue;
+            for (int symbol = 1; symbol < width; symbol++) {
+                int target = blockOf[compact[machine.next(from, symbol)]];
+                if (target != deadBlock)
+                    for (String input : inputs[symbol])
+                        transitions.add(new Transition(state, blockStates[target], input));
+            }
+        }
+        State initial = blockStates[blockOf[compact[machine.getInitialState()]]];
+        StateMachine minimized = new StateMachine(states, new ArrayList<>(sm.getAlphabet()),
+                transitions, initial, accepting);
+        return new Minimization(sm, minimized, members);
+    }
+
+    /**
+     * Hopcroft's algorithm on the reachable states, numbered 0..m-1.
+     * The partition is kept as one array of states in which every block is a contiguous
+     * range, and the states of a block that are marked by a splitter are moved to the
+     * front of its range so that a block can be split without copying.
+     * @return The block of each state.
+     */
+    private static int[] refine(CompiledStateMachine machine, int[] originalOf, int[] compact, int width) {
+        int m = originalOf.length;
+        int symbols = width - 1;
+
+        // Predecessors of every (symbol, state) pair, in compressed rows.
+        int[] predStart = new int[symbols * m + 1];
+        for (int symbol = 1; symbol < width; symbol++)
+            for (int q = 0; q < m; q++)
+                predStart[(symbol - 1) * m + compact[machine.next(originalOf[q], symbol)] + 1]++;
+        for (int i = 1; i < predStart.length; i++)
+            predStart[i] += predStart[i - 1];
+        int[] preds = new int[symbols * m];
+        int[] fill = Arrays.copyOf(predStart, predStart.length - 1);
+        for (int symbol = 1; symbol < width; symbol++)
+            for (int q = 0; q < m; q++)
+                preds[fill[(symbol - 1) * m + compact[machine.next(originalOf[q], symbol)]]++] = q;
+
+        int[] elems = new int[m];
+        int[] loc = new int[m];
+        int[] blockOf = new int[m];
+        int[] start = new int[m + 1];
+        int[] end = new int[m + 1];
+        int[] marked = new int[m + 1];
+        int[] work = new int[m + 1];
+        int workSize = 0;
+
+        // Initial partition: accepting states first, then the others.
+        int acceptingCount = 0;
+        for (int q = 0; q < m; q++)
+            if (machine.isAccepting(originalOf[q]))
+                acceptingCount++;
+        int front = 0;
+        int back = acceptingCount;
+        for (int q = 0; q < m; q++) {
+            int pos = machine.isAccepting(originalOf[q]) ? front++ : back++;
+            elems[pos] = q;
+            loc[q] = pos;
+        }
+        int blocks = 0;
+        if (acceptingCount > 0) {
+            start[blocks] = 0;
+            end[blocks] = acceptingCount;
+            blocks++;
+        }
+        if (acceptingCount < m) {
+            start[blocks] = acceptingCount;
+            end[blocks] = m;
+            blocks++;
+        }
+        for (int b = 0; b < blocks; b++)
+            for (int i = start[b]; i < end[b]; i++)
+                blockOf[elems[i]] = b;
+        if (blocks == 2)
+            work[workSize++] = end[0] - start[0] <= end[1] - start[1] ? 0 : 1;
+
+        int[] splitter = new int[m];
+        int[] touched = new int[m];
+        while (workSize > 0) {
+            int a = work[--workSize];
+            int size = end[a] - start[a];
+            System.arraycopy(elems, start[a], splitter, 0, size);
+            for (int symbol = 0; symbol < symbols; symbol++) {
+                int touchedCount = 0;
+                for (int k = 0; k < size; k++) {
+                    int q = splitter[k];
+                    for (int j = predStart[symbol * m + q]; j < predStart[symbol * m + q + 1]; j++) {
+                        int p = preds[j];
+                        int b = blockOf[p];
+                        int pos = loc[p];
+                        int firstUnmarked = start[b] + marked[b];
+                        if (pos < firstUnmarked)
+                            continue;
+                        int other = elems[firstUnmarked];
+                        elems[firstUnmarked] = p;
+                        loc[p] = firstUnmarked;
+                        elems[pos] = other;
+                        loc[other] = pos;
+                        if (marked[b]++ == 0)
+                            touched[touchedCount++] = b;
+                    }
+                }
+                for (int t = 0; t < touchedCount; t++) {
+                    int b = touched[t];
+                    int split = start[b] + marked[b];
+                    marked[b] = 0;
+                    if (split == end[b])
+                        continue;
+                    // The smaller half becomes the new block, so each state is relabelled O(log n) times.
+                    int nb = blocks++;
+                    if (split - start[b] <= end[b] - split) {
+                        start[nb] = start[b];
+                        end[nb] = split;
+                        start[b] = split;
+                    } else {
+                        start[nb] = split;
+                        end[nb] = end[b];
+                        end[b] = split;
+                    }
+                    for (int i = start[nb]; i < end[nb]; i++)
+                        blockOf[elems[i]] = nb;
+                    // If b is waiting it will be processed with its new contents; either way the
+                    // smaller half is enough to refine against.
+                    work[workSize++] = nb;
+                }
+            }
+        }
+        return blockOf;
+    }
+
+    public StateMachine getMachine() {
+        return minimized;
+    }
+
+    /**
+     * @param state A state of the minimized machine.
+     * @return The states of the original machine that were merged into it.
+     */
+    public List<State> getOriginalStates(State state) {
+        List<State> result = members.get(state.getName());
+        return result == null ? Collections.emptyList() : Collections.unmodifiableList(result);
+    }
+
+    public int getOriginalStateCount() {
+        return original.getStates().size();
+    }
+
+    public int getMinimizedStateCount() {
+        return minimized.getStates().size();
+    }
+
+    /**
+     * @return The number of states removed, counting merged, unreachable and hopeless states.
+     */
+    public int getRemovedStateCount() {
+        return getOriginalStateCount() - getMinimizedStateCount();
+    }
+
+    @Override
+    public String toString() {
+        return "Minimized from " + getOriginalStateCount() + " to " + getMinimizedStateCount() + " states";
+    }
+}
@@ -0,0 +1,315 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+
+/**
+ * A nondeterministic finite state machine built from the same State and Transition types
+ * as StateMachine. A state may have several transitions on the same input, and a transition
+ * whose input is the empty string (EPSILON) can be taken without reading anything.
+ * The machine can be turned into a StateMachine up front with determinize, or run through
+ * a LazyDfa, which only builds the deterministic states the input actually visits.
+ * Like StateMachine, it copies the lists it is given and cannot be changed afterwards.
+ */
+public class NondeterministicStateMachine {
+    public static final String EPSILON = "";
+    private static final int DEFAULT_CACHE_SIZE = 10000;
+
+    private final List<State> states;
+    private final List<String> alphabet;
+    private final List<Transition> transitionFunction;
+    private final State initialState;
+    private final List<State> acceptingStates;
+
+    // The transitions indexed by state id and symbol, in compressed rows.
+    private final String[] stateNames;
+    private final int width;
+    private final int[] symbolOf;
+    private final char[] symbols;
+    private final int[] moveStart;
+    private final int[] moves;
+    private final int[] epsilonStart;
+    private final int[] epsilons;
+    private final boolean[] accepting;
+    private final int initial;
+    // Lazy DFAs not in use by any checker call, at most one per core.
+    private final ArrayBlockingQueue<LazyDfa> idle =
+            new ArrayBlockingQueue<>(Runtime.getRuntime().availableProcessors());
+
+    public NondeterministicStateMachine(List<State> states, List<String> alphabet,
+                                        List<Transition> transitionFunction, State initialState,
+                                        List<State> acceptingStates) {
+        this.states = Collections.unmodifiableList(new ArrayList<>(states));
+        this.alphabet = Collections.unmodifiableList(new ArrayList<>(alphabet));
+        this.transitionFunction = Collections.unmodifiableList(new ArrayList<>(transitionFunction));
+        this.initialState = initialState;
+        this.acceptingStates = Collections.unmodifiableList(new ArrayList<>(acceptingStates));
+
+        HashMap<String, Integer> ids = new HashMap<>();
+        ArrayList<String> names = new ArrayList<>();
+        id(initialState, ids, names);
+        for (State s : states)
+            id(s, ids, names);
+        for (Transition t : transitionFunction) {
+            id(t.getCurrent(), ids, names);
+            id(t.getNext(), ids, names);
+        }
+        stateNames = names.toArray(new String[0]);
+        int n = stateNames.length;
+
+        int[] symbolIndex = new int[Character.MAX_VALUE + 1];
+        StringBuilder symbolChars = new StringBuilder().append('\0');
+        int maxChar = -1;
+        ArrayList<String> inputs = new ArrayList<>(alphabet);
+        for (Transition t : transitionFunction)
+            inputs.add(t.getInput());
+        for (String s : inputs) {
+            if (s.length() != 1)
+                continue;
+            char c = s.charAt(0);
+            if (symbolIndex[c] == 0) {
+                symbolIndex[c] = symbolChars.length();
+                symbolChars.append(c);
+            }
+            maxChar = Math.max(maxChar, c);
+        }
+        width = symbolChars.length();
+        symbols = symbolChars.toString().toCharArray();
+        symbolOf = Arrays.copyOf(symbolIndex, maxChar + 1);
+
+        moveStart = new int[n * width + 1];
+        epsilonStart = new int[n + 1];
+        for (Transition t : transitionFunction) {
+            int from = ids.get(t.getCurrent().getName());
+            if (t.getInput().isEmpty())
+                epsilonStart[from + 1]++;
+            else if (t.getInput().length() == 1)
+                moveStart[from * width + symbolIndex[t.getInput().charAt(0)] + 1]++;
+        }
+        for (int i = 1; i < moveStart.length; i++)
+            moveStart[i] += moveStart[i - 1];
+        for (int i = 1; i < epsilonStart.length; i++)
+            epsilonStart[i] += epsilonStart[i - 1];
+        moves = new int[moveStart[moveStart.length - 1]];
+        epsilons = new int[epsilonStart[n]];
+        int[] moveFill = Arrays.copyOf(moveStart, moveStart.length - 1);
+        int[] epsilonFill = Arrays.copyOf(epsilonStart, n);
+        for (Transition t : transitionFunction) {
+            int from = ids.get(t.getCurrent().getName());
+            int to = ids.get(t.getNext().getName());
+            if (t.getInput().isEmpty())
+                epsilons[epsilonFill[from]++] = to;
+            else if (t.getInput().length() == 1)
+                moves[moveFill[from * width + symbolIndex[t.getInput().charAt(0)]]++] = to;
+        }
+
+        accepting = new boolean[n];
+        for (State s : acceptingStates) {
+            Integer id = ids.get(s.getName());
+            if (id != null)
+                accepting[id] = true;
+        }
+        initial = ids.get(initialState.getName());
+    }
+
+    private static void id(State s, HashMap<String, Integer> ids, ArrayList<String> names) {
+        if (!ids.containsKey(s.getName())) {
+            ids.put(s.getName(), names.size());
+            names.add(s.getName());
+        }
+    }
+
+    public List<State> getStates() {
+        return states;
+    }
+
+    public List<String> getAlphabet() {
+        return alphabet;
+    }
+
+    public List<Transition> getTransitionFunction() {
+        return transitionFunction;
+    }
+
+    public State getInitialState() {
+        return initialState;
+    }
+
+    public List<State> getAcceptingStates() {
+        return acceptingStates;
+    }
+
+    /**
+     * Checks if a given string is part of the language of the machine, using a lazy DFA.
+     * Each call takes an idle lazy DFA, or creates one if all of them are busy, and hands it
+     * back afterwards; at most one per core is kept, so the cached states stay bounded however
+     * many threads call checker. As with StateMachine.checker, the empty string is never accepted.
+     * @param input The input characters.
+     * @return Boolean indicating whether or not the input is in the language.
+     */
+    public boolean checker(CharSequence input) {
+        LazyDfa dfa = idle.poll();
+        if (dfa == null)
+            dfa = lazy(DEFAULT_CACHE_SIZE);
+        boolean accepted = dfa.checker(input);
+        idle.offer(dfa);
+        return accepted;
+    }
+
+    /**
+     * Creates a lazy DFA that determinizes the machine while it runs.
+     * @param maxStates The number of deterministic states to cache before the cache is flushed.
+     * @return The lazy DFA; it is not thread-safe.
+     */
+    public LazyDfa lazy(int maxStates) {
+        return new LazyDfa(this, maxStates);
+    }
+
+    /**
+     * Builds the equivalent StateMachine with the subset construction.
+     * Only the sets of states reachable from the initial state are created. Each new state is
+     * named after the set it stands for, such as {A,B}.
+     * @return The deterministic machine.
+     */
+    public StateMachine determinize() {
+        HashMap<SetKey, State> dfaStates = new HashMap<>();
+        ArrayList<int[]> queue = new ArrayList<>();
+        ArrayList<State> newStates = new ArrayList<>();
+        ArrayList<Transition> transitions = new ArrayList<>();
+        ArrayList<State> newAccepting = new ArrayList<>();
+        Scratch scratch = new Scratch(stateNames.length);
+
+        int[] start = closure(new int[]{initial}, scratch);
+        State startState = dfaState(start, dfaStates, queue, newStates, newAccepting);
+        for (int head = 0; head < queue.size(); head++) {
+            int[] set = queue.get(head);
+            State from = dfaStates.get(new SetKey(set));
+            for (int symbol = 1; symbol < width; symbol++) {
+                int[] next = step(set, symbol, scratch);
+                if (next.length == 0)
+                    continue;
+                State to = dfaState(next, dfaStates, queue, newStates, newAccepting);
+                transitions.add(new Transition(from, to, String.valueOf(symbols[symbol])));
+            }
+        }
+        return new StateMachine(newStates, alphabet, transitions, startState, newAccepting);
+    }
+
+    private State dfaState(int[] set, HashMap<SetKey, State> dfaStates, List<int[]> queue,
+                           List<State> newStates, List<State> newAccepting) {
+        SetKey key = new SetKey(set);
+        State state = dfaStates.get(key);
+        if (state == null) {
+            StringBuilder name = new StringBuilder("{");
+            for (int i = 0; i < set.length; i++)
+                name.append(i == 0 ? "" : ",").append(stateNames[set[i]]);
+            state = new State(name.append('}').toString());
+            dfaStates.put(key, state);
+            queue.add(set);
+            newStates.add(state);
+            if (isAccepting(set))
+                newAccepting.add(state);
+        }
+        return state;
+    }
+
+    int getWidth() {
+        return width;
+    }
+
+    int symbol(char c) {
+        return c < symbolOf.length ? symbolOf[c] : 0;
+    }
+
+    int[] initialSet(Scratch scratch) {
+        return closure(new int[]{initial}, scratch);
+    }
+
+    boolean isAccepting(int[] set) {
+        for (int s : set)
+            if (accepting[s])
+                return true;
+        return false;
+    }
+
+    Scratch newScratch() {
+        return new Scratch(stateNames.length);
+    }
+
+    /**
+     * @return The epsilon closure of the states reached from the set on the symbol, sorted.
+     */
+    int[] step(int[] set, int symbol, Scratch scratch) {
+        scratch.size = 0;
+        for (int s : set)
+            for (int i = moveStart[s * width + symbol]; i < moveStart[s * width + symbol + 1]; i++)
+                scratch.add(moves[i]);
+        return scratch.close(this);
+    }
+
+    private int[] closure(int[] set, Scratch scratch) {
+        scratch.size = 0;
+        for (int s : set)
+            scratch.add(s);
+        return scratch.close(this);
+    }
+
+    /**
+     * Working memory for building sets of states without allocating per state.
+     */
+    static final class Scratch {
+        private final boolean[] seen;
+        private final int[] members;
+        private int size;
+
+        Scratch(int n) {
+            seen = new boolean[n];
+            members = new int[n];
+        }
+
+        private void add(int s) {
+            if (!seen[s]) {
+                seen[s] = true;
+                members[size++] = s;
+            }
+        }
+
+        private int[] close(NondeterministicStateMachine nfa) {
+            for (int i = 0; i < size; i++) {
+                int s = members[i];
+                for (int j = nfa.epsilonStart[s]; j < nfa.epsilonStart[s + 1]; j++)
+                    add(nfa.epsilons[j]);
+            }
+            int[] set = Arrays.copyOf(members, size);
+            for (int s : set)
+                seen[s] = false;
+            Arrays.sort(set);
+            return set;
+        }
+    }
+
+    /**
+     * A sorted set of NFA states used as a hash key.
+     */
+    static final class SetKey {
+        final int[] set;
+        private final int hash;
+
+        SetKey(int[] set) {
+            this.set = set;
+            this.hash = Arrays.hashCode(set);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof SetKey && Arrays.equals(set, ((SetKey) o).set);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
@@ -0,0 +1,233 @@
+import java.nio.IntBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * The product of several compiled machines that run side by side over the same input.
+ * A state of the product is a tuple with one state of each machine, and only the tuples
+ * that can be reached from the tuple of initial states are built. The characters are
+ * split into the classes that every machine agrees on, so the table stays as narrow as
+ * the machines allow. The tuple of dead states has id 0, and so is every tuple in which a
+ * required machine is dead, since no input can make it accept again. Callers decide which
+ * tuples accept, through toCompiled.
+ */
+final class ProductConstruction {
+    private final CompiledStateMachine[] machines;
+    private final int[] tuples;
+    private final int stateCount;
+    private final int initialState;
+    private final int width;
+    private final int[] table;
+    private final CharClassMap classes;
+
+    private ProductConstruction(CompiledStateMachine[] machines, int[] tuples, int stateCount,
+                                int initialState, int width, int[] table, CharClassMap classes) {
+        this.machines = machines;
+        this.tuples = tuples;
+        this.stateCount = stateCount;
+        this.initialState = initialState;
+        this.width = width;
+        this.table = table;
+        this.classes = classes;
+    }
+
+    /**
+     * Builds the reachable part of the product, with no required machines.
+     * @param machines The machines, at least one.
+     * @return The product.
+     */
+    static ProductConstruction of(CompiledStateMachine... machines) {
+        return of(new boolean[machines.length], machines);
+    }
+
+    /**
+     * Builds the reachable part of the product.
+     * @param required For each machine, whether the product is dead as soon as it is.
+     * @param machines The machines, at least one.
+     * @return The product.
+     */
+    static ProductConstruction of(boolean[] required, CompiledStateMachine... machines) {
+        int k = machines.length;
+        if (k == 0)
+            throw new IllegalArgumentException("A product needs at least one machine");
+
+        // A product class is a tuple with the class of the character in each machine.
+        HashMap<IntBuffer, Integer> classIds = new HashMap<>();
+        int[] classTuples = new int[16 * k];
+        int width = 1;
+        int[] classOf = new int[Character.MAX_VALUE + 1];
+        classIds.put(IntBuffer.wrap(new int[k]), 0);
+        for (int c = 0; c <= Character.MAX_VALUE; c++) {
+            int[] tuple = new int[k];
+            boolean known = false;
+            for (int m = 0; m < k; m++) {
+                tuple[m] = machines[m].classes().get((char) c);
+                known |= tuple[m] != 0;
+            }
+            if (!known)
+                continue;
+            Integer id = classIds.putIfAbsent(IntBuffer.wrap(tuple), width);
+            if (id == null) {
+                id = width++;
+                if (id * k == classTuples.length)
+                    classTuples = Arrays.copyOf(classTuples, 2 * classTuples.length);
+                System.arraycopy(tuple, 0, classTuples, id * k, k);
+            }
+            classOf[c] = id;
+        }
+
+        HashMap<IntBuffer, Integer> stateIds = new HashMap<>();
+        int[] tuples = new int[16 * k];
+        int stateCount = 0;
+        int[] dead = new int[k];
+        stateIds.put(IntBuffer.wrap(dead), stateCount++);
+        int[] initial = new int[k];
+        for (int m = 0; m < k; m++)
+            initial[m] = machines[m].getInitialState();
+        deadIfRequired(initial, required);
+        Integer initialState = stateIds.putIfAbsent(IntBuffer.wrap(initial), stateCount);
+        if (initialState == null) {
+            initialState = stateCount++;
+            System.arraycopy(initial, 0, tuples, initialState * k, k);
+        }
+        int[] table = new int[16 * width];
+        for (int state = 0; state < stateCount; state++) {
+            if ((state + 1) * width > table.length)
+                table = Arrays.copyOf(table, 2 * Math.max(table.length, (state + 1) * width));
+            for (int symbol = 1; symbol < width; symbol++) {
+                int[] next = new int[k];
+                for (int m = 0; m < k; m++)
+                    next[m] = machines[m].next(tuples[state * k + m], classTuples[symbol * k + m]);
+                deadIfRequired(next, required);
+                Integer id = stateIds.putIfAbsent(IntBuffer.wrap(next), stateCount);
+                if (id == null) {
+                    id = stateCount++;
+                    if (stateCount * k > tuples.length)
+                        tuples = Arrays.copyOf(tuples, 2 * tuples.length);
+                    System.arraycopy(next, 0, tuples, id * k, k);
+                }
+                table[state * width + symbol] = id;
+            }
+        }
+        return new ProductConstruction(machines, tuples, stateCount, initialState, width,
+                Arrays.copyOf(table, stateCount * width), CharClassMap.of(classOf));
+    }
+
+    private static void deadIfRequired(int[] tuple, boolean[] required) {
+        for (int m = 0; m < tuple.length; m++)
+            if (required[m] && tuple[m] == Automaton.DEAD) {
+                Arrays.fill(tuple, Automaton.DEAD);
+                return;
+            }
+    }
+
+    /**
+     * @param first A machine.
+     * @param second Another machine.
+     * @return A machine accepting what either machine accepts.
+     */
+    static StateMachine union(StateMachine first, StateMachine second) {
+        ProductConstruction product = of(first.compile(), second.compile());
+        boolean[] accepting = new boolean[product.stateCount];
+        for (int state = 1; state < accepting.length; state++)
+            accepting[state] = product.accepts(state, 0) || product.accepts(state, 1);
+        return product.toCompiled(accepting).toStateMachine();
+    }
+
+    /**
+     * @param machines Machines, at least one.
+     * @return A machine accepting what every machine accepts.
+     */
+    static StateMachine intersection(StateMachine... machines) {
+        CompiledStateMachine[] compiled = new CompiledStateMachine[machines.length];
+        boolean[] required = new boolean[machines.length];
+        for (int m = 0; m < machines.length; m++) {
+            compiled[m] = machines[m].compile();
+            required[m] = true;
+        }
+        ProductConstruction product = of(required, compiled);
+        boolean[] accepting = new boolean[product.stateCount];
+        for (int state = 1; state < accepting.length; state++) {
+            accepting[state] = true;
+            for (int m = 0; m < machines.length; m++)
+                accepting[state] &= product.accepts(state, m);
+        }
+        return product.toCompiled(accepting).toStateMachine();
+    }
+
+    /**
+     * @param first A machine.
+     * @param second Another machine.
+     * @return A machine accepting what the first machine accepts and the second does not.
+     */
+    static StateMachine difference(StateMachine first, StateMachine second) {
+        return difference(first.compile(), second.compile());
+    }
+
+    private static StateMachine difference(CompiledStateMachine first, CompiledStateMachine second) {
+        ProductConstruction product = of(new boolean[]{true, false}, first, second);
+        boolean[] accepting = new boolean[product.stateCount];
+        for (int state = 1; state < accepting.length; state++)
+            accepting[state] = product.accepts(state, 0) && !product.accepts(state, 1);
+        return product.toCompiled(accepting).toStateMachine();
+    }
+
+    /**
+     * The complement is taken over the strings made of characters of the machine, so that
+     * a character outside its alphabet is still rejected.
+     * @param machine A machine.
+     * @return A machine accepting the strings over the alphabet of the machine that it rejects.
+     */
+    static StateMachine complement(StateMachine machine) {
+        CompiledStateMachine compiled = machine.compile();
+        int width = compiled.getWidth();
+        int[] table = new int[2 * width];
+        Arrays.fill(table, width + 1, 2 * width, 1);
+        CompiledStateMachine universe = CompiledStateMachine.of(table, width, compiled.classes(),
+                new boolean[]{false, true}, 1, new String[]{compiled.getStateName(Automaton.DEAD), "*"});
+        return difference(universe, compiled);
+    }
+
+    int getStateCount() {
+        return stateCount;
+    }
+
+    /**
+     * @param state A state of the product.
+     * @param machine The index of a machine.
+     * @return The state of that machine in the tuple.
+     */
+    int component(int state, int machine) {
+        return tuples[state * machines.length + machine];
+    }
+
+    /**
+     * @param state A state of the product.
+     * @param machine The index of a machine.
+     * @return Whether that machine accepts in the tuple.
+     */
+    boolean accepts(int state, int machine) {
+        return machines[machine].isAccepting(component(state, machine));
+    }
+
+    /**
+     * @param accepting Which states of the product accept.
+     * @return The product as a compiled machine, with states named after their tuples.
+     */
+    CompiledStateMachine toCompiled(boolean[] accepting) {
+        String[] names = new String[stateCount];
+        names[0] = machines[0].getStateName(Automaton.DEAD);
+        StringBuilder name = new StringBuilder();
+        for (int state = 1; state < stateCount; state++) {
+            name.setLength(0);
+            name.append('(');
+            for (int m = 0; m < machines.length; m++) {
+                if (m > 0)
+                    name.append(',');
+                name.append(machines[m].getStateName(component(state, m)));
+            }
+            names[state] = name.append(')').toString();
+        }
+        return CompiledStateMachine.of(table, width, classes, accepting, initialState, names);
+    }
+}
@@ -0,0 +1,406 @@
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Compiles regular expressions into minimal StateMachines.
+ * A pattern is parsed into a tree, turned into a nondeterministic machine by Thompson's
+ * construction, determinized by the subset construction and minimized with Hopcroft's
+ * algorithm, so the result runs on the same compiled table as a hand-written machine.
+ * <p>
+ * The syntax is a common subset: literal characters, "." for any character, classes
+ * such as [a-z0-9] and [^,], grouping with ( ), alternation with |, the quantifiers
+ * *, + and ? and the bounded repetitions {n}, {n,} and {n,m}. A backslash escapes the
+ * next character, and \d, \w and \s stand for digits, word characters and whitespace.
+ * A machine has a finite alphabet, so "." and negated classes range over UNIVERSE, the
+ * printable ASCII characters and tab. As with every StateMachine, the empty string is
+ * never accepted, even by a pattern such as "a*".
+ * <p>
+ * Compiled machines are kept in a least recently used cache keyed by pattern, so loading
+ * the same rules again costs a lookup. Machines are immutable, so the cached ones are
+ * shared between all callers.
+ */
+public final class RegexCompiler {
+    public static final String UNIVERSE;
+    private static final String DIGITS = "0123456789";
+    private static final String WORD;
+    private static final String SPACES = " \t\n\r\f\u000B";
+    private static final RegexCompiler DEFAULT = new RegexCompiler(256);
+
+    static {
+        StringBuilder universe = new StringBuilder("\t");
+        StringBuilder word = new StringBuilder("_");
+        for (char c = ' '; c <= '~'; c++) {
+            universe.append(c);
+            if (Character.isLetterOrDigit(c))
+                word.append(c);
+        }
+        UNIVERSE = universe.toString();
+        WORD = word.toString();
+    }
+
+    private final Map<String, StateMachine> cache;
+
+    /**
+     * @param cacheSize The number of compiled patterns to keep.
+     */
+    public RegexCompiler(int cacheSize) {
+        if (cacheSize < 0)
+            throw new IllegalArgumentException("Cache size must not be negative");
+        cache = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, StateMachine> eldest) {
+                return size() > cacheSize;
+            }
+        };
+    }
+
+    /**
+     * Compiles a pattern with a shared compiler that caches 256 patterns.
+     * @param pattern The regular expression.
+     * @return The minimal machine accepting the non-empty strings that match the pattern.
+     */
+    public static StateMachine compile(String pattern) {
+        return DEFAULT.get(pattern);
+    }
+
+    /**
+     * @param pattern The regular expression.
+     * @return The minimal machine for the pattern, from the cache if it was compiled before.
+     */
+    public StateMachine get(String pattern) {
+        synchronized (cache) {
+            StateMachine machine = cache.get(pattern);
+            if (machine != null)
+                return machine;
+        }
+        StateMachine machine = build(pattern);
+        synchronized (cache) {
+            StateMachine raced = cache.putIfAbsent(pattern, machine);
+            return raced != null ? raced : machine;
+        }
+    }
+
+    /**
+     * @return The number of patterns in the cache.
+     */
+    public int getCachedCount() {
+        synchronized (cache) {
+            return cache.size();
+        }
+    }
+
+    private static StateMachine build(String pattern) {
+        Parser parser = new Parser(pattern);
+        Node tree = parser.parse();
+        Thompson thompson = new Thompson();
+        int[] fragment = thompson.build(tree);
+        StateMachine dfa = thompson.toMachine(fragment, parser.alphabet).determinize();
+        StateMachine minimal = dfa.minimize().getMachine();
+        // Replace the set names of the subset construction by short ones.
+        CompiledStateMachine compiled = minimal.compile();
+        String[] names = new String[compiled.getStateCount()];
+        names[0] = compiled.getStateName(Automaton.DEAD);
+        for (int s = 1; s < names.length; s++)
+            names[s] = "q" + (s - 1);
+        return compiled.renamed(names).toStateMachine();
+    }
+
+    /**
+     * A node of the parsed pattern: a set of characters, a sequence, an alternation or a
+     * repetition of its children between min and max times (max -1 for no limit).
+     */
+    private static final class Node {
+        static final int CHARS = 0;
+        static final int SEQUENCE = 1;
+        static final int ALTERNATION = 2;
+        static final int REPEAT = 3;
+
+        final int kind;
+        final String chars;
+        final ArrayList<Node> children = new ArrayList<>();
+        int min;
+        int max;
+
+        Node(int kind, String chars) {
+            this.kind = kind;
+            this.chars = chars;
+        }
+    }
+
+    /**
+     * A recursive descent parser for the pattern, which also collects the characters it uses.
+     */
+    private static final class Parser {
+        private final String pattern;
+        private int pos;
+        final ArrayList<String> alphabet = new ArrayList<>();
+        private final boolean[] inAlphabet = new boolean[Character.MAX_VALUE + 1];
+
+        Parser(String pattern) {
+            this.pattern = pattern;
+        }
+
+        Node parse() {
+            Node node = alternation();
+            if (pos < pattern.length())
+                throw error("Unexpected '" + pattern.charAt(pos) + "'");
+            return node;
+        }
+
+        private Node alternation() {
+            Node first = sequence();
+            if (!peek('|'))
+                return first;
+            Node node = new Node(Node.ALTERNATION, null);
+            node.children.add(first);
+            while (peek('|')) {
+                pos++;
+                node.children.add(sequence());
+            }
+            return node;
+        }
+
+        private Node sequence() {
+            Node node = new Node(Node.SEQUENCE, null);
+            while (pos < pattern.length() && !peek('|') && !peek(')'))
+                node.children.add(repetition());
+            return node;
+        }
+
+        private Node repetition() {
+            Node atom = atom();
+            while (pos < pattern.length()) {
+                char c = pattern.charAt(pos);
+                int min;
+                int max;
+                if (c == '*') {
+                    min = 0;
+                    max = -1;
+                } else if (c == '+') {
+                    min = 1;
+                    max = -1;
+                } else if (c == '?') {
+                    min = 0;
+                    max = 1;
+                } else if (c == '{') {
+                    pos++;
+                    min = number();
+                    max = min;
+                    if (peek(',')) {
+                        pos++;
+                        max = peek('}') ? -1 : number();
+                    }
+                    if (!peek('}') || max != -1 && max < min)
+                        throw error("Malformed repetition");
+                } else {
+                    break;
+                }
+                pos++;
+                Node repeat = new Node(Node.REPEAT, null);
+                repeat.children.add(atom);
+                repeat.min = min;
+                repeat.max = max;
+                atom = repeat;
+            }
+            return atom;
+        }
+
+        private Node atom() {
+            char c = pattern.charAt(pos++);
+            switch (c) {
+                case '(':
+                    Node group = alternation();
+                    if (!peek(')'))
+                        throw error("Missing ')'");
+                    pos++;
+                    return group;
+                case '[':
+                    return chars(characterClass());
+                case '.':
+                    return chars(UNIVERSE);
+                case '\\':
+                    return chars(escape());
+                case '*':
+                case '+':
+                case '?':
+                case '{':
+                case ')':
+                    throw error("Unexpected '" + c + "'");
+                default:
+                    return chars(String.valueOf(c));
+            }
+        }
+
+        private String characterClass() {
+            boolean negated = peek('^');
+            if (negated)
+                pos++;
+            StringBuilder set = new StringBuilder();
+            boolean first = true;
+            while (pos < pattern.length() && (first || !peek(']'))) {
+                first = false;
+                char c = pattern.charAt(pos++);
+                if (c == '\\') {
+                    String escaped = escape();
+                    if (escaped.length() > 1) {
+                        set.append(escaped);
+                        continue;
+                    }
+                    c = escaped.charAt(0);
+                }
+                if (peek('-') && pos + 1 < pattern.length() && pattern.charAt(pos + 1) != ']') {
+                    pos++;
+                    char last = pattern.charAt(pos++);
+                    if (last == '\\')
+                        last = escape().charAt(0);
+                    if (last < c)
+                        throw error("Empty range");
+                    for (char r = c; r < last; r++)
+                        set.append(r);
+                    set.append(last);
+                } else {
+                    set.append(c);
+                }
+            }
+            if (!peek(']'))
+                throw error("Missing ']'");
+            pos++;
+            if (!negated)
+                return set.toString();
+            StringBuilder complement = new StringBuilder();
+            for (char u : UNIVERSE.toCharArray())
+                if (set.indexOf(String.valueOf(u)) < 0)
+                    complement.append(u);
+            return complement.toString();
+        }
+
+        private String escape() {
+            if (pos == pattern.length())
+                throw error("Pattern ends with '\\'");
+            char c = pattern.charAt(pos++);
+            switch (c) {
+                case 'd':
+                    return DIGITS;
+                case 'w':
+                    return WORD;
+                case 's':
+                    return SPACES;
+                case 't':
+                    return "\t";
+                case 'n':
+                    return "\n";
+                case 'r':
+                    return "\r";
+                default:
+                    return String.valueOf(c);
+            }
+        }
+
+        private int number() {
+            int start = pos;
+            while (pos < pattern.length() && Character.isDigit(pattern.charAt(pos)))
+                pos++;
+            if (start == pos || pos - start > 4)
+                throw error("Malformed repetition");
+            return Integer.parseInt(pattern.substring(start, pos));
+        }
+
+        private Node chars(String chars) {
+            for (char c : chars.toCharArray())
+                if (!inAlphabet[c]) {
+                    inAlphabet[c] = true;
+                    alphabet.add(String.valueOf(c));
+                }
+            return new Node(Node.CHARS, chars);
+        }
+
+        private boolean peek(char c) {
+            return pos < pattern.length() && pattern.charAt(pos) == c;
+        }
+
+        private IllegalArgumentException error(String message) {
+            return new IllegalArgumentException(message + " at index " + pos + " of " + pattern);
+        }
+    }
+
+    /**
+     * Thompson's construction. Every node becomes a fragment with one entry and one exit
+     * state, joined to the fragments around it by epsilon transitions.
+     */
+    private static final class Thompson {
+        private final ArrayList<State> states = new ArrayList<>();
+        private final ArrayList<Transition> transitions = new ArrayList<>();
+
+        /**
+         * @return The entry and exit state of the fragment.
+         */
+        int[] build(Node node) {
+            int entry = newState();
+            int exit;
+            switch (node.kind) {
+                case Node.CHARS:
+                    exit = newState();
+                    for (char c : node.chars.toCharArray())
+                        edge(entry, exit, String.valueOf(c));
+                    break;
+                case Node.SEQUENCE:
+                    exit = entry;
+                    for (Node child : node.children) {
+                        int[] fragment = build(child);
+                        edge(exit, fragment[0], NondeterministicStateMachine.EPSILON);
+                        exit = fragment[1];
+                    }
+                    break;
+                case Node.ALTERNATION:
+                    exit = newState();
+                    for (Node child : node.children) {
+                        int[] fragment = build(child);
+                        edge(entry, fragment[0], NondeterministicStateMachine.EPSILON);
+                        edge(fragment[1], exit, NondeterministicStateMachine.EPSILON);
+                    }
+                    break;
+                default:
+                    exit = entry;
+                    Node child = node.children.get(0);
+                    for (int i = 0; i < node.min; i++) {
+                        int[] fragment = build(child);
+                        edge(exit, fragment[0], NondeterministicStateMachine.EPSILON);
+                        exit = fragment[1];
+                    }
+                    if (node.max < 0) {
+                        int[] fragment = build(child);
+                        edge(exit, fragment[0], NondeterministicStateMachine.EPSILON);
+                        edge(fragment[1], exit, NondeterministicStateMachine.EPSILON);
+                    } else {
+                        int end = newState();
+                        edge(exit, end, NondeterministicStateMachine.EPSILON);
+                        for (int i = node.min; i < node.max; i++) {
+                            int[] fragment = build(child);
+                            edge(exit, fragment[0], NondeterministicStateMachine.EPSILON);
+                            edge(fragment[1], end, NondeterministicStateMachine.EPSILON);
+                            exit = fragment[1];
+                        }
+                        exit = end;
+                    }
+            }
+            return new int[]{entry, exit};
+        }
+
+        NondeterministicStateMachine toMachine(int[] fragment, ArrayList<String> alphabet) {
+            ArrayList<State> accepting = new ArrayList<>();
+            accepting.add(states.get(fragment[1]));
+            return new NondeterministicStateMachine(states, alphabet, transitions,
+                    states.get(fragment[0]), accepting);
+        }
+
+        private int newState() {
+            states.add(new State("n" + states.size()));
+            return states.size() - 1;
+        }
+
+        private void edge(int from, int to, String input) {
+            transitions.add(new Transition(states.get(from), states.get(to), input));
+        }
+    }
+}
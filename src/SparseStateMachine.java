@@ -0,0 +1,305 @@
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * A machine stored by its transitions rather than as a table of states by symbols, for
+ * machines with very many states that each have a few transitions.
+ * The transitions are kept in flat arrays in compressed sparse row layout: the
+ * transitions of state s are keys[start[s]] to keys[start[s + 1] - 1], sorted by
+ * character, with the states they lead to in targets. Each state is stepped in the way
+ * that suits its number of transitions: a state with one transition compares one
+ * character, a state with a few searches its keys by bisection, and a state with
+ * transitions on a large part of the alphabet gets a dense row instead, indexed by the
+ * symbol of the character. Memory grows with the number of transitions, plus two ints
+ * per state.
+ * <p>
+ * Machines with millions of states should be built with a Builder, which numbers states
+ * with ints, since a StateMachine is compiled to a dense table when it is built.
+ */
+public final class SparseStateMachine implements Automaton {
+    private final int[] start;
+    private final char[] keys;
+    private final int[] targets;
+    private final int[] denseRow;
+    private final int[] dense;
+    private final int width;
+    private final CharClassMap classes;
+    private final boolean[] accepting;
+    private final int initialState;
+    private final String[] stateNames;
+
+    private SparseStateMachine(int[] start, char[] keys, int[] targets, int[] denseRow, int[] dense,
+                               int width, CharClassMap classes, boolean[] accepting,
+                               int initialState, String[] stateNames) {
+        this.start = start;
+        this.keys = keys;
+        this.targets = targets;
+        this.denseRow = denseRow;
+        this.dense = dense;
+        this.width = width;
+        this.classes = classes;
+        this.accepting = accepting;
+        this.initialState = initialState;
+        this.stateNames = stateNames;
+    }
+
+    /**
+     * Stores the transitions of a machine sparsely. States are told apart by State.equals,
+     * and when several transitions share a state and input the first one wins, as in compile.
+     * The states of the machine are numbered from 1, so a state that happens to have the
+     * name of the dead state is a state like any other.
+     * @param sm The machine.
+     * @return The sparse machine.
+     */
+    public static SparseStateMachine of(StateMachine sm) {
+        HashMap<State, Integer> ids = new HashMap<>();
+        ids.put(sm.getInitialState(), ids.size() + 1);
+        for (State s : sm.getStates())
+            ids.putIfAbsent(s, ids.size() + 1);
+        for (Transition t : sm.getTransitionFunction())
+            if (t.getCurrent() != null && t.getNext() != null) {
+                ids.putIfAbsent(t.getCurrent(), ids.size() + 1);
+                ids.putIfAbsent(t.getNext(), ids.size() + 1);
+            }
+        Builder builder = new Builder(ids.size() + 1);
+        builder.firstWins = true;
+        String[] names = new String[ids.size() + 1];
+        names[DEAD] = sm.getDeadState().getName();
+        ids.forEach((state, id) -> names[id] = state.getName());
+        for (Transition t : sm.getTransitionFunction()) {
+            if (t.getCurrent() == null || t.getNext() == null || t.getInput() == null
+                    || t.getInput().length() != 1)
+                continue;
+            builder.addTransition(ids.get(t.getCurrent()), t.getInput().charAt(0), ids.get(t.getNext()));
+        }
+        for (State s : sm.getAcceptingStates()) {
+            Integer id = s == null ? null : ids.get(s);
+            if (id != null)
+                builder.setAccepting(id);
+        }
+        return builder.setInitialState(ids.get(sm.getInitialState())).build(names);
+    }
+
+    /**
+     * Builds a sparse machine from states numbered 1 to stateCount - 1; 0 is DEAD.
+     */
+    public static final class Builder {
+        private final int stateCount;
+        private final boolean[] accepting;
+        private int initialState = -1;
+        private int[] from = new int[64];
+        private int[] to = new int[64];
+        private char[] input = new char[64];
+        private int size;
+        private boolean firstWins;
+
+        /**
+         * @param stateCount The number of state ids, including DEAD.
+         */
+        public Builder(int stateCount) {
+            if (stateCount < 2)
+                throw new IllegalArgumentException("A machine needs a state besides DEAD");
+            this.stateCount = stateCount;
+            this.accepting = new boolean[stateCount];
+        }
+
+        /**
+         * @param current The state the transition leaves.
+         * @param c The input character.
+         * @param next The state the transition leads to.
+         * @return This builder.
+         */
+        public Builder addTransition(int current, char c, int next) {
+            checkState(current);
+            if (next != DEAD)
+                checkState(next);
+            if (size == from.length) {
+                from = Arrays.copyOf(from, 2 * size);
+                to = Arrays.copyOf(to, 2 * size);
+                input = Arrays.copyOf(input, 2 * size);
+            }
+            from[size] = current;
+            to[size] = next;
+            input[size++] = c;
+            return this;
+        }
+
+        public Builder setInitialState(int state) {
+            checkState(state);
+            initialState = state;
+            return this;
+        }
+
+        public Builder setAccepting(int state) {
+            checkState(state);
+            accepting[state] = true;
+            return this;
+        }
+
+        private void checkState(int state) {
+            if (state <= DEAD || state >= stateCount)
+                throw new IllegalArgumentException("No state " + state);
+        }
+
+        /**
+         * @return The machine, with states named q1, q2 and so on.
+         * @throws IllegalArgumentException If there is no initial state, or two transitions
+         * leave one state on one character for different states.
+         */
+        public SparseStateMachine build() {
+            return build(null);
+        }
+
+        private SparseStateMachine build(String[] names) {
+            if (initialState < 0)
+                throw new IllegalArgumentException("No initial state");
+            // Group the transitions by state, then sort each group by character.
+            int[] start = new int[stateCount + 1];
+            for (int e = 0; e < size; e++)
+                start[from[e] + 1]++;
+            for (int s = 0; s < stateCount; s++)
+                start[s + 1] += start[s];
+            int[] fill = Arrays.copyOf(start, stateCount);
+            long[] edges = new long[size];
+            for (int e = 0; e < size; e++)
+                edges[fill[from[e]]++] = (long) input[e] << 32 | (long) e;
+
+            int[] rowStart = new int[stateCount + 1];
+            char[] keys = new char[size];
+            int[] targets = new int[size];
+            int count = 0;
+            for (int s = 0; s < stateCount; s++) {
+                rowStart[s] = count;
+                // Transitions with the same character stay in the order they were added.
+                Arrays.sort(edges, start[s], start[s + 1]);
+                int first = count;
+                for (int k = start[s]; k < start[s + 1]; k++) {
+                    int e = (int) edges[k];
+                    char c = input[e];
+                    int next = to[e];
+                    if (count > first && keys[count - 1] == c) {
+                        if (!firstWins && targets[count - 1] != next)
+                            throw new IllegalArgumentException("State " + s + " has two transitions on " + c);
+                        continue;
+                    }
+                    keys[count] = c;
+                    targets[count++] = next;
+                }
+            }
+            rowStart[stateCount] = count;
+            return fromRows(rowStart, keys, targets, accepting.clone(), initialState, names);
+        }
+    }
+
+    /**
+     * Builds a machine from its transitions in compressed sparse row layout, moving the rows
+     * of states with transitions on a large part of the alphabet into dense rows. The arrays
+     * are taken over and may be changed.
+     * @param start The index in keys of the first transition of each state, and the number
+     *              of transitions at index stateCount.
+     * @param keys The character of each transition, in increasing order for each state.
+     * @param targets The state each transition leads to.
+     * @param accepting Which states accept; its length is the number of states.
+     * @param initialState The initial state.
+     * @param names The names of the states, null to name them after their ids.
+     * @return The machine.
+     */
+    static SparseStateMachine fromRows(int[] start, char[] keys, int[] targets, boolean[] accepting,
+                                       int initialState, String[] names) {
+        int stateCount = accepting.length;
+        // The symbols of the alphabet, for the dense rows.
+        int[] classOf = new int[Character.MAX_VALUE + 1];
+        int width = 1;
+        for (int k = 0; k < start[stateCount]; k++)
+            if (classOf[keys[k]] == 0)
+                classOf[keys[k]] = width++;
+
+        int[] denseRow = new int[stateCount];
+        Arrays.fill(denseRow, -1);
+        int[] dense = new int[0];
+        int denseSize = 0;
+        int count = 0;
+        for (int s = 0; s < stateCount; s++) {
+            int from = start[s];
+            int degree = start[s + 1] - from;
+            start[s] = count;
+            // A dense row costs no more than twice the sparse one.
+            if (width <= 3 * degree && degree > 1) {
+                if (denseSize + width > dense.length)
+                    dense = Arrays.copyOf(dense, Math.max(2 * dense.length, denseSize + width));
+                denseRow[s] = denseSize;
+                for (int k = from; k < from + degree; k++)
+                    dense[denseSize + classOf[keys[k]]] = targets[k];
+                denseSize += width;
+            } else {
+                System.arraycopy(keys, from, keys, count, degree);
+                System.arraycopy(targets, from, targets, count, degree);
+                count += degree;
+            }
+        }
+        start[stateCount] = count;
+        return new SparseStateMachine(start, Arrays.copyOf(keys, count), Arrays.copyOf(targets, count),
+                denseRow, Arrays.copyOf(dense, denseSize), width, CharClassMap.of(classOf),
+                accepting, initialState, names);
+    }
+
+    @Override
+    public int step(int state, char c) {
+        int from = start[state];
+        int to = start[state + 1];
+        if (to - from == 1)
+            return keys[from] == c ? targets[from] : DEAD;
+        if (from == to) {
+            int row = denseRow[state];
+            return row < 0 ? DEAD : dense[row + classes.get(c)];
+        }
+        to--;
+        while (from <= to) {
+            int mid = (from + to) >>> 1;
+            char key = keys[mid];
+            if (key < c)
+                from = mid + 1;
+            else if (key > c)
+                to = mid - 1;
+            else
+                return targets[mid];
+        }
+        return DEAD;
+    }
+
+    @Override
+    public int getInitialState() {
+        return initialState;
+    }
+
+    @Override
+    public boolean isAccepting(int state) {
+        return accepting[state];
+    }
+
+    @Override
+    public int getStateCount() {
+        return accepting.length;
+    }
+
+    @Override
+    public String getStateName(int state) {
+        if (stateNames != null)
+            return stateNames[state];
+        return state == DEAD ? "dead" : "q" + state;
+    }
+
+    /**
+     * @return The number of transitions stored in sparse rows.
+     */
+    public int getSparseTransitionCount() {
+        return keys.length;
+    }
+
+    /**
+     * @return The number of states with a dense row.
+     */
+    public int getDenseRowCount() {
+        return dense.length / width;
+    }
+}
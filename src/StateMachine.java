@@ -1,35 +1,152 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Objects;
 import java.util.Scanner;
+import java.util.stream.Stream;
+
+/**
+ * An immutable deterministic finite state machine.
+ * The lists given to the constructor are copied and the getters return unmodifiable views,
+ * and the machine is compiled into its transition table when it is built. Every field is
+ * final, so a machine can be shared between any number of threads without locking once
+ * it has been constructed. Use a Builder to put a machine together piece by piece.
+ */
+public final class StateMachine {
+    private static final int STREAM_CHUNK = 1 << 14;
+
+    private final List<State> states;
+    private final List<String> alphabet;
+    private final List<Transition> transitionFunction;
+    private final State initialState;
+    private final List<State> acceptingStates;
+    private final State deadState;
+    private final CompiledStateMachine compiled;
+
+    public StateMachine(List<State> states, List<String> alphabet,
+                        List<Transition> transitionFunction, State initialState,
+                        List<State> acceptingStates) {
+        this(states, alphabet, transitionFunction, initialState, acceptingStates, null);
+    }
 
-public class StateMachine {
-    public ArrayList<State> states;
-    public ArrayList<String> alphabet;
-    public ArrayList<Transition> transitionFunction;
-    public State initialState;
-    public ArrayList<State> acceptingStates;
-    public State deadState;
-
-    public StateMachine(ArrayList<State> states, ArrayList<String> alphabet,
-                        ArrayList<Transition> transitionFunction, State initialState,
-                        ArrayList<State> acceptingStates) {
-        this.states = states;
-        this.alphabet = alphabet;
-        this.transitionFunction = transitionFunction;
-        this.initialState = initialState;
-        this.acceptingStates = acceptingStates;
+    /**
+     * @param compiled The compiled form of the machine, if the caller already has it.
+     * @throws IllegalArgumentException If a transition has the empty string as its input;
+     * only a NondeterministicStateMachine can move without reading a character.
+     */
+    StateMachine(List<State> states, List<String> alphabet, List<Transition> transitionFunction,
+                 State initialState, List<State> acceptingStates, CompiledStateMachine compiled) {
+        this.states = Collections.unmodifiableList(new ArrayList<>(states));
+        this.alphabet = Collections.unmodifiableList(new ArrayList<>(alphabet));
+        this.transitionFunction = Collections.unmodifiableList(new ArrayList<>(transitionFunction));
+        this.initialState = Objects.requireNonNull(initialState, "initialState");
+        this.acceptingStates = Collections.unmodifiableList(new ArrayList<>(acceptingStates));
         this.deadState = new State("Dead State");
+        for (Transition t : this.transitionFunction)
+            if (t.getInput() != null && t.getInput().isEmpty())
+                throw new IllegalArgumentException("Transition without an input: " + t);
+        this.compiled = compiled != null ? compiled : CompiledStateMachine.compile(this);
+    }
+
+    /**
+     * Puts a machine together one state, symbol and transition at a time, by name.
+     * Transitions may name states before they are added, but every state they name must
+     * have been added by the time build is called. A builder is not thread-safe, while the
+     * machines it builds are.
+     */
+    public static final class Builder {
+        private final LinkedHashMap<String, State> states = new LinkedHashMap<>();
+        private final ArrayList<String> alphabet = new ArrayList<>();
+        private final ArrayList<String[]> transitions = new ArrayList<>();
+        private final ArrayList<String> accepting = new ArrayList<>();
+        private String initialState;
+
+        public Builder addState(String name){
+            states.putIfAbsent(name, new State(name));
+            return this;
+        }
+
+        /**
+         * @param symbol A single character.
+         */
+        public Builder addSymbol(String symbol){
+            if (symbol.length() != 1)
+                throw new IllegalArgumentException("Input is not a single character: " + symbol);
+            if (!alphabet.contains(symbol))
+                alphabet.add(symbol);
+            return this;
+        }
+
+        /**
+         * Adds every character of a string to the alphabet.
+         */
+        public Builder addSymbols(String symbols){
+            for (int i = 0; i < symbols.length(); i++)
+                addSymbol(String.valueOf(symbols.charAt(i)));
+            return this;
+        }
+
+        /**
+         * Adds a transition, and its input to the alphabet.
+         */
+        public Builder addTransition(String current, String input, String next){
+            addSymbol(input);
+            transitions.add(new String[]{current, input, next});
+            return this;
+        }
+
+        public Builder setInitialState(String name){
+            initialState = name;
+            return this;
+        }
+
+        public Builder addAcceptingState(String name){
+            accepting.add(name);
+            return this;
+        }
+
+        /**
+         * @return The machine; the builder can be used again afterwards.
+         * @throws IllegalArgumentException If a state is used without having been added,
+         * or there is no initial state.
+         */
+        public StateMachine build(){
+            if (initialState == null)
+                throw new IllegalArgumentException("No initial state");
+            ArrayList<Transition> transitionFunction = new ArrayList<>();
+            for (String[] t : transitions)
+                transitionFunction.add(new Transition(state(t[0]), state(t[2]), t[1]));
+            ArrayList<State> acceptingStates = new ArrayList<>();
+            for (String name : accepting)
+                acceptingStates.add(state(name));
+            return new StateMachine(new ArrayList<>(states.values()), alphabet, transitionFunction,
+                    state(initialState), acceptingStates);
+        }
+
+        private State state(String name){
+            State state = states.get(name);
+            if (state == null)
+                throw new IllegalArgumentException("Unknown state " + name);
+            return state;
+        }
     }
 
-    public ArrayList<State> getStates() {
+    public List<State> getStates() {
         return states;
     }
 
-    public ArrayList<String> getAlphabet() {
+    public List<String> getAlphabet() {
         return alphabet;
     }
 
-    public ArrayList<Transition> getTransitionFunction() {
+    public List<Transition> getTransitionFunction() {
         return transitionFunction;
     }
 
@@ -37,7 +154,7 @@ public class StateMachine {
         return initialState;
     }
 
-    public ArrayList<State> getAcceptingStates() {
+    public List<State> getAcceptingStates() {
         return acceptingStates;
     }
 
@@ -47,32 +164,203 @@ public class StateMachine {
 
     /**
      * Method to check if a given string is part of the language of the machine.
+     * The empty string is never accepted.
      * @param input The input string.
      * @return Boolean indicating whether or not the input is in the language.
      */
     public boolean checker(String input){
-        String[] in = input.split("");
-        State current = getInitialState();
-        for (String c:in){
-            if(current==deadState)
-                return false;
-            current = findNext(current,c);
-        }
-        return acceptingStates.contains(current);
+        return compiled.checker(input);
     }
 
     /**
-     * Function to run the finite state machine.
-     * @param current The current state.
-     * @param input The next input (of length 1).
-     * @return The next state.
+     * Checks any character sequence, such as a StringBuilder or CharBuffer, without copying it.
+     * @param input The input characters.
+     * @return Boolean indicating whether or not the input is in the language.
      */
-    private State findNext(State current, String input){
-        for (Transition t: transitionFunction){
-            if (t.getCurrent().equals(current) && t.getInput().equals(input))
-                return t.next;
+    public boolean checker(CharSequence input){
+        return compiled.checker(input);
+    }
+
+    /**
+     * Checks a slice of a character array without copying it.
+     * @param input The array holding the input.
+     * @param offset The index of the first character.
+     * @param length The number of characters to check.
+     * @return Boolean indicating whether or not the input is in the language.
+     */
+    public boolean checker(char[] input, int offset, int length){
+        return compiled.checker(input, offset, length);
+    }
+
+    /**
+     * Checks the UTF-8 (or ASCII) bytes between the position and limit of a buffer in place.
+     * The position of the buffer is not changed.
+     * @param input The buffer holding the input.
+     * @return Boolean indicating whether or not the input is in the language.
+     */
+    public boolean checker(ByteBuffer input){
+        return compiled.checker(input);
+    }
+
+    /**
+     * Checks many inputs at once, spreading the work over all cores.
+     * @param inputs The inputs to check.
+     * @return The verdict for each input, in the same order.
+     */
+    public boolean[] checkAll(List<? extends CharSequence> inputs){
+        return BatchValidator.checkAll(compiled, inputs);
+    }
+
+    /**
+     * Checks many inputs at once, spreading the work over all cores.
+     * @param inputs The inputs to check.
+     * @return The verdict for each input, in the same order.
+     */
+    public boolean[] checkAll(CharSequence[] inputs){
+        return BatchValidator.checkAll(compiled, Arrays.asList(inputs));
+    }
+
+    /**
+     * Checks every element of a stream, spreading the work over all cores.
+     * The stream is taken in chunks of 16384 inputs, and only the current chunk is
+     * held, so the inputs can be produced lazily, for example from the lines of a file.
+     * @param inputs The inputs to check, consumed by this call.
+     * @return The verdict for each input, in encounter order.
+     */
+    public boolean[] checkAll(Stream<? extends CharSequence> inputs){
+        Iterator<? extends CharSequence> iterator = inputs.iterator();
+        List<CharSequence> chunk = new ArrayList<>();
+        boolean[] verdicts = new boolean[0];
+        int size = 0;
+        while (iterator.hasNext()) {
+            chunk.add(iterator.next());
+            if (chunk.size() == STREAM_CHUNK || !iterator.hasNext()) {
+                boolean[] checked = BatchValidator.checkAll(compiled, chunk);
+                if (size + checked.length > verdicts.length)
+                    verdicts = Arrays.copyOf(verdicts, Math.max(2 * verdicts.length, size + checked.length));
+                System.arraycopy(checked, 0, verdicts, size, checked.length);
+                size += checked.length;
+                chunk.clear();
+            }
         }
-        return deadState;
+        return size == verdicts.length ? verdicts : Arrays.copyOf(verdicts, size);
+    }
+
+    /**
+     * @param inputs The inputs to check.
+     * @return The set of indices of the inputs that are in the language.
+     */
+    public BitSet acceptedSet(List<? extends CharSequence> inputs){
+        boolean[] verdicts = checkAll(inputs);
+        BitSet accepted = new BitSet(verdicts.length);
+        for (int i = 0; i < verdicts.length; i++)
+            if (verdicts[i])
+                accepted.set(i);
+        return accepted;
+    }
+
+    /**
+     * Builds the equivalent machine with the fewest states, using Hopcroft's algorithm.
+     * @return The minimized machine, how much it shrank and which states were merged.
+     */
+    public Minimization minimize(){
+        return Minimization.of(this);
+    }
+
+    /**
+     * @return A new matcher that checks input fed to it piece by piece.
+     */
+    public StreamMatcher matcher(){
+        return new StreamMatcher(compiled);
+    }
+
+    /**
+     * The instrumented machine runs slower than checker, which is not affected by it.
+     * @return A new machine that counts state visits, transitions, rejections, input
+     * lengths and throughput while it checks inputs.
+     */
+    public InstrumentedStateMachine instrumented(){
+        return new InstrumentedStateMachine(compiled);
+    }
+
+    /**
+     * Generates a class that runs the machine as code, one block per state and a switch on
+     * the character per transition. Only checker runs the generated code. Each call generates
+     * a new class, which is unloaded once the returned machine is no longer reachable.
+     * @return The specialized machine, or the compiled machine if the machine is too large
+     * to be specialized.
+     */
+    public Automaton specialize(){
+        return BytecodeStateMachine.of(compiled);
+    }
+
+    /**
+     * @return A copy of the compiled machine in native memory, outside the Java heap.
+     */
+    public MappedStateMachine offHeap(){
+        return MappedStateMachine.offHeap(compiled);
+    }
+
+    /**
+     * The operations below build the product of the machines: a machine whose states are
+     * tuples of their states, so that one pass over the input runs all of them. Only the
+     * tuples reachable from the initial tuple are built, and states are named after their
+     * tuples, for example "(B,C)".
+     * @param other Another machine.
+     * @return A machine accepting the strings that either machine accepts.
+     */
+    public StateMachine union(StateMachine other){
+        return ProductConstruction.union(this, other);
+    }
+
+    /**
+     * @param other Another machine.
+     * @return A machine accepting the strings that both machines accept.
+     */
+    public StateMachine intersection(StateMachine other){
+        return ProductConstruction.intersection(this, other);
+    }
+
+    /**
+     * Combines any number of rules into one machine, so that an input is checked against
+     * all of them in a single pass.
+     * @param rules The machines, at least one.
+     * @return A machine accepting the strings that every rule accepts.
+     */
+    public static StateMachine allOf(StateMachine... rules){
+        return ProductConstruction.intersection(rules);
+    }
+
+    /**
+     * @param other Another machine.
+     * @return A machine accepting the strings that this machine accepts and the other does not.
+     */
+    public StateMachine difference(StateMachine other){
+        return ProductConstruction.difference(this, other);
+    }
+
+    /**
+     * Characters outside the alphabet of the machine are rejected by the complement as well.
+     * @return A machine accepting the strings over the alphabet that this machine rejects.
+     */
+    public StateMachine complement(){
+        return ProductConstruction.complement(this);
+    }
+
+    /**
+     * @param mode Which matches to report.
+     * @return A new scanner that finds the substrings of a text that the machine accepts.
+     */
+    public MatchScanner scanner(MatchScanner.Mode mode){
+        return new MatchScanner(compiled, mode);
+    }
+
+    /**
+     * @return The dense transition table the machine was compiled into when it was built,
+     * which checker runs on.
+     */
+    public CompiledStateMachine compile(){
+        return compiled;
     }
 
     /**
@@ -88,6 +376,14 @@ public class StateMachine {
         return new StateMachine(states,alphabet,transitionFunction,initialState,acceptingStates);
     }
 
+    /**
+     * Reads a state machine file in the same format with the single-pass StateMachineReader,
+     * which is much faster than the Scanner based methods for large machines.
+     */
+    public static StateMachine readStateMachine(Path file) throws IOException {
+        return StateMachineReader.read(file);
+    }
+
     public static ArrayList<State> readStates(Scanner sc){
         sc.useDelimiter("Alphabet\n");
         String statesString = sc.next();
@@ -138,7 +434,7 @@ public class StateMachine {
             if (state.getName().equals(nextStateString))
                 nextState = state;
         }
-        if (inputString.length()>1)
+        if (inputString.length()!=1)
             throw new IllegalArgumentException("Input is not a single String");
         if(currentState==null && nextState==null)
             throw new NullPointerException("State(s) not found");
@@ -197,8 +493,8 @@ public class StateMachine {
 
 }
 
-class State {
-    public String name;
+final class State {
+    private final String name;
 
     public State(String name){
         this.name = name;
@@ -216,16 +512,21 @@ class State {
         return Objects.equals(name, state.name);
     }
 
+    @Override
+    public int hashCode() {
+        return Objects.hashCode(name);
+    }
+
     @Override
     public String toString() {
         return getName();
     }
 }
 
-class Transition {
-    public State current;
-    public State next;
-    public String input;
+final class Transition {
+    private final State current;
+    private final State next;
+    private final String input;
 
     public Transition(State current, State next, String input) {
         this.current = current;
@@ -254,6 +555,11 @@ class Transition {
                 this.next.equals(that.next) && this.input.equals(that.input);
     }
 
+    @Override
+    public int hashCode() {
+        return Objects.hash(current, next, input);
+    }
+
     @Override
     public String toString() {
         return  current +
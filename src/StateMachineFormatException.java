@@ -0,0 +1,30 @@
+/**
+ * Thrown when the text definition of a state machine cannot be parsed, or a binary machine
+ * is malformed. Lines and columns are counted from 1; they are 0 for a binary machine.
+ */
+public class StateMachineFormatException extends IllegalArgumentException {
+    private static final long serialVersionUID = 1L;
+
+    private final int line;
+    private final int column;
+
+    public StateMachineFormatException(String message) {
+        super(message);
+        this.line = 0;
+        this.column = 0;
+    }
+
+    public StateMachineFormatException(String message, int line, int column) {
+        super(message + " at line " + line + ", column " + column);
+        this.line = line;
+        this.column = column;
+    }
+
+    public int getLine() {
+        return line;
+    }
+
+    public int getColumn() {
+        return column;
+    }
+}
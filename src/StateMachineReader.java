@@ -0,0 +1,290 @@
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Reads a state machine in the format written by StateMachine.toString, in one pass.
+ * Each section header (States, Alphabet, Transition Function, Initial State, Accepting States)
+ * is followed by one entry per line, and a transition is written current___input___next.
+ * Lines are parsed in place in a character buffer and state names are resolved through a
+ * hash index over that buffer, so a transition line allocates nothing but its Transition.
+ * Empty lines are ignored. Errors report the line and column they were found at.
+ */
+public final class StateMachineReader {
+    private static final String SEPARATOR = "___";
+    private static final String[] SECTIONS = {"States", "Alphabet", "Transition Function",
+            "Initial State", "Accepting States"};
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private final Reader in;
+    private char[] buffer = new char[BUFFER_SIZE];
+    private int position;
+    private int limit;
+    private boolean endOfInput;
+    private int lineStart;
+    private int lineEnd;
+    private int lineNumber;
+
+    private State[] index = new State[64];
+    private int indexSize;
+    private final String[] inputs = new String[128];
+
+    private final ArrayList<State> states = new ArrayList<>();
+    private final ArrayList<String> alphabet = new ArrayList<>();
+    private final ArrayList<Transition> transitionFunction = new ArrayList<>();
+    private final ArrayList<State> acceptingStates = new ArrayList<>();
+    private State initialState;
+
+    private StateMachineReader(Reader in) {
+        this.in = in;
+    }
+
+    /**
+     * Reads a state machine from a file encoded in UTF-8.
+     * @param file The file to read.
+     * @return The state machine.
+     * @throws IOException If the file cannot be read.
+     * @throws StateMachineFormatException If the file is not a valid definition.
+     */
+    public static StateMachine read(Path file) throws IOException {
+        try (Reader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            return read(reader);
+        }
+    }
+
+    /**
+     * Reads a state machine from a reader.
+     * @param reader The reader to read; it is not closed.
+     * @return The state machine.
+     * @throws IOException If the reader fails.
+     * @throws StateMachineFormatException If the text is not a valid definition.
+     */
+    public static StateMachine read(Reader reader) throws IOException {
+        return new StateMachineReader(reader).parse();
+    }
+
+    private StateMachine parse() throws IOException {
+        int section = -1;
+        while (nextLine()) {
+            if (lineStart == lineEnd)
+                continue;
+            if (section + 1 < SECTIONS.length && lineEquals(SECTIONS[section + 1])) {
+                section++;
+                continue;
+            }
+            switch (section) {
+                case 0:
+                    addState();
+                    break;
+                case 1:
+                    alphabet.add(input(buffer[lineStart]));
+                    break;
+                case 2:
+                    transitionFunction.add(readTransition());
+                    break;
+                case 3:
+                    if (initialState != null)
+                        throw error("Only one initial state is allowed", lineStart);
+                    initialState = state(lineStart, lineEnd);
+                    break;
+                case 4:
+                    acceptingStates.add(state(lineStart, lineEnd));
+                    break;
+                default:
+                    throw error("Expected \"States\"", lineStart);
+            }
+        }
+        if (section < SECTIONS.length - 1)
+            throw error("Missing section \"" + SECTIONS[section + 1] + "\"", lineEnd);
+        if (initialState == null)
+            throw error("Missing initial state", lineEnd);
+        return new StateMachine(states, alphabet, transitionFunction, initialState, acceptingStates);
+    }
+
+    /**
+     * Moves to the next line, refilling the buffer when the line is not complete.
+     * @return False at the end of the input.
+     */
+    private boolean nextLine() throws IOException {
+        int scan = position;
+        while (true) {
+            for (int i = scan; i < limit; i++) {
+                if (buffer[i] == '\n') {
+                    setLine(position, i);
+                    position = i + 1;
+                    return true;
+                }
+            }
+            if (endOfInput) {
+                if (position == limit)
+                    return false;
+                setLine(position, limit);
+                position = limit;
+                return true;
+            }
+            scan = limit - position;
+            if (position > 0) {
+                System.arraycopy(buffer, position, buffer, 0, scan);
+                limit = scan;
+                position = 0;
+            } else if (limit == buffer.length) {
+                buffer = Arrays.copyOf(buffer, buffer.length * 2);
+            }
+            int read = in.read(buffer, limit, buffer.length - limit);
+            if (read < 0)
+                endOfInput = true;
+            else
+                limit += read;
+        }
+    }
+
+    private void setLine(int start, int end) {
+        lineNumber++;
+        lineStart = start;
+        lineEnd = end > start && buffer[end - 1] == '\r' ? end - 1 : end;
+    }
+
+    private boolean lineEquals(String s) {
+        if (lineEnd - lineStart != s.length())
+            return false;
+        for (int i = 0; i < s.length(); i++)
+            if (buffer[lineStart + i] != s.charAt(i))
+                return false;
+        return true;
+    }
+
+    /**
+     * Parses current___input___next. The input is a single character, which may itself be
+     * an underscore.
+     */
+    private Transition readTransition() {
+        int first = indexOf(SEPARATOR, lineStart);
+        if (first <= lineStart)
+            throw error("Expected current" + SEPARATOR + "input" + SEPARATOR + "next", lineStart);
+        State current = state(lineStart, first);
+        int inputStart = first + SEPARATOR.length();
+        String input;
+        int nextStart;
+        if (startsWith(SEPARATOR, inputStart + 1)) {
+            input = input(buffer[inputStart]);
+            nextStart = inputStart + 1 + SEPARATOR.length();
+        } else {
+            throw error("Input is not a single character", inputStart);
+        }
+        if (nextStart >= lineEnd)
+            throw error("Missing next state", nextStart);
+        State next = state(nextStart, lineEnd);
+        return new Transition(current, next, input);
+    }
+
+    private int indexOf(String s, int from) {
+        for (int i = from; i <= lineEnd - s.length(); i++)
+            if (startsWith(s, i))
+                return i;
+        return -1;
+    }
+
+    private boolean startsWith(String s, int at) {
+        if (at + s.length() > lineEnd)
+            return false;
+        for (int i = 0; i < s.length(); i++)
+            if (buffer[at + i] != s.charAt(i))
+                return false;
+        return true;
+    }
+
+    private void addState() {
+        if (find(lineStart, lineEnd) != null)
+            throw error("Duplicate state", lineStart);
+        State state = new State(new String(buffer, lineStart, lineEnd - lineStart));
+        if (2 * (indexSize + 1) > index.length)
+            rehash();
+        insert(state);
+        states.add(state);
+    }
+
+    private State state(int from, int to) {
+        State state = find(from, to);
+        if (state == null)
+            throw error("Unknown state " + new String(buffer, from, to - from), from);
+        return state;
+    }
+
+    /**
+     * Looks a name up in the open addressing index without creating a String for it.
+     */
+    private State find(int from, int to) {
+        int mask = index.length - 1;
+        for (int slot = spread(hash(buffer, from, to)) & mask; index[slot] != null; slot = (slot + 1) & mask) {
+            String name = index[slot].getName();
+            if (name.length() == to - from && regionMatches(name, from))
+                return index[slot];
+        }
+        return null;
+    }
+
+    private boolean regionMatches(String name, int from) {
+        for (int i = 0; i < name.length(); i++)
+            if (buffer[from + i] != name.charAt(i))
+                return false;
+        return true;
+    }
+
+    private void insert(State state) {
+        String name = state.getName();
+        int mask = index.length - 1;
+        int slot = spread(name.hashCode()) & mask;
+        while (index[slot] != null)
+            slot = (slot + 1) & mask;
+        index[slot] = state;
+        indexSize++;
+    }
+
+    private void rehash() {
+        State[] old = index;
+        index = new State[old.length * 2];
+        indexSize = 0;
+        for (State s : old)
+            if (s != null)
+                insert(s);
+    }
+
+    /**
+     * The same hash as String.hashCode, so stored names and buffer ranges can be compared.
+     */
+    private static int hash(char[] chars, int from, int to) {
+        int h = 0;
+        for (int i = from; i < to; i++)
+            h = 31 * h + chars[i];
+        return h;
+    }
+
+    /**
+     * Mixes the bits of a hash, since names such as s1, s2, s3 have consecutive hashes that
+     * would otherwise fill long runs of slots.
+     */
+    private static int spread(int h) {
+        h *= 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    private String input(char c) {
+        if (c >= inputs.length)
+            return String.valueOf(c);
+        String input = inputs[c];
+        if (input == null)
+            input = inputs[c] = String.valueOf(c);
+        return input;
+    }
+
+    /**
+     * @param at The position in the buffer the error was found at.
+     */
+    private StateMachineFormatException error(String message, int at) {
+        return new StateMachineFormatException(message, lineNumber, at - lineStart + 1);
+    }
+}
@@ -1,7 +1,20 @@
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Scanner;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
 import static org.junit.jupiter.api.Assertions.*;
 
 public class StateMachineTest {
@@ -116,6 +129,382 @@ public class StateMachineTest {
         assertTrue(stateMachine.checker(in));
     }
 
+    @Test
+    void testUnknownCharacter(){
+        String in = "5x2=";
+        in = removeSpaces(in);
+        assertFalse(stateMachine.checker(in));
+    }
+
+    @Test
+    void testCompiledTable(){
+        CompiledStateMachine compiled = stateMachine.compile();
+        assertEquals(6, compiled.getStateCount()); // A to E plus the dead state
+        assertEquals(5, compiled.getWidth()); // digits, -, + * /, = and unknown characters
+        int operators = 1;
+        while (compiled.getSymbol(operators) != '*')
+            operators++;
+        assertEquals("*+/", new String(compiled.getSymbolChars(operators)));
+        int state = compiled.step(compiled.getInitialState(), '-');
+        assertEquals("D", compiled.getStateName(state));
+        assertEquals(CompiledStateMachine.DEAD, compiled.step(state, '-'));
+        assertTrue(compiled.checker("13+145*12/13="));
+        assertFalse(compiled.checker("24=23+123"));
+    }
+
+    @Test
+    void testCheckerOverloads(){
+        assertTrue(stateMachine.checker(new StringBuilder("252/-52=")));
+        char[] chars = "xx252/-52=xx".toCharArray();
+        assertTrue(stateMachine.checker(chars, 2, 8));
+        assertFalse(stateMachine.checker(chars, 0, 8));
+        assertFalse(stateMachine.checker(chars, 2, 0));
+        assertThrows(IndexOutOfBoundsException.class, () -> stateMachine.checker(chars, 2, Integer.MAX_VALUE));
+        ByteBuffer bytes = ByteBuffer.wrap("xx252/-52=xx".getBytes(StandardCharsets.UTF_8));
+        bytes.position(2).limit(10);
+        assertTrue(stateMachine.checker(bytes));
+        assertEquals(2, bytes.position());
+        assertFalse(stateMachine.checker(ByteBuffer.wrap("5\u00e9=".getBytes(StandardCharsets.UTF_8))));
+        assertFalse(stateMachine.checker(ByteBuffer.wrap(new byte[]{'5', (byte) 0xC3, '='})));
+    }
+
+    @Test
+    void testCheckAll(){
+        ArrayList<String> inputs = new ArrayList<>();
+        for (int i = 0; i < 5000; i++)
+            inputs.add(i % 3 == 0 ? i + "=" : i + "+-");
+        boolean[] verdicts = stateMachine.checkAll(inputs);
+        BitSet accepted = stateMachine.acceptedSet(inputs);
+        for (int i = 0; i < inputs.size(); i++) {
+            assertEquals(i % 3 == 0, verdicts[i]);
+            assertEquals(i % 3 == 0, accepted.get(i));
+        }
+        boolean[] fromStream = stateMachine.checkAll(Stream.of("1=", "", "-2*3="));
+        assertArrayEquals(new boolean[]{true, false, true}, fromStream);
+        boolean[] chunked = stateMachine.checkAll(IntStream.range(0, 40000).mapToObj(i -> i % 3 == 0 ? i + "=" : i + "+-"));
+        assertEquals(40000, chunked.length);
+        for (int i = 0; i < chunked.length; i++)
+            assertEquals(i % 3 == 0, chunked[i]);
+    }
+
+    @Test
+    void testValidateFile() throws IOException {
+        Path file = Files.createTempFile("expressions", ".txt");
+        try {
+            Files.write(file, "13 + 145 * 12 / 13 =\n24 = 23 + 123\r\n\n63 - - 52 =\n25 = ".getBytes());
+            CompiledStateMachine machine = stateMachine.compile().skipping(" \t\r");
+            ArrayList<Long> acceptedOffsets = new ArrayList<>();
+            FileValidator.Counts counts = new FileValidator(machine, 8).validate(file, (offset, accepted) -> {
+                if (accepted)
+                    synchronized (acceptedOffsets) {
+                        acceptedOffsets.add(offset);
+                    }
+            });
+            assertEquals(3, counts.getAccepted());
+            assertEquals(2, counts.getRejected());
+            acceptedOffsets.sort(null);
+            assertEquals(Arrays.asList(0L, 37L, 49L), acceptedOffsets);
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    void testMatchScanner(){
+        String text = "x12+3=y=-4=5=";
+        MatchScanner scanner = stateMachine.scanner(MatchScanner.Mode.LEFTMOST_LONGEST);
+        MatchScanner.MatchBuffer matches = new MatchScanner.MatchBuffer();
+        scanner.scan(text, matches);
+        assertEquals(3, matches.size());
+        assertEquals("12+3=", text.substring(matches.getStart(0), matches.getEnd(0)));
+        assertEquals("-4=", text.substring(matches.getStart(1), matches.getEnd(1)));
+        assertEquals("5=", text.substring(matches.getStart(2), matches.getEnd(2)));
+        assertEquals(new State("E"), scanner.getState(matches.getState(0)));
+        matches.clear();
+        stateMachine.scanner(MatchScanner.Mode.ALL).scan("4=2+", matches);
+        assertEquals(1, matches.size());
+        assertEquals(2, matches.getEnd(0));
+    }
+
+    @Test
+    void testMatchScannerLinear(){
+        // a or a+b: whether a run of a's is one match or many is only known at its end
+        StateMachine machine = new StateMachine.Builder().addState("I").addState("A").addState("B")
+                .addState("C").addTransition("I", "a", "A").addTransition("A", "a", "B")
+                .addTransition("B", "a", "B").addTransition("A", "b", "C").addTransition("B", "b", "C")
+                .addAcceptingState("A").addAcceptingState("C").setInitialState("I").build();
+        MatchScanner scanner = machine.scanner(MatchScanner.Mode.LEFTMOST_LONGEST);
+        MatchScanner.MatchBuffer matches = new MatchScanner.MatchBuffer();
+        String text = "a".repeat(200000);
+        assertTimeout(Duration.ofSeconds(10), () -> scanner.scan(text, matches));
+        assertEquals(text.length(), matches.size());
+        assertEquals(199999, matches.getStart(199999));
+        matches.clear();
+        MatchScanner wide = new MatchScanner(machine.compile(), MatchScanner.Mode.LEFTMOST_LONGEST, 1 << 19);
+        wide.scan(text + "b" + text, matches);
+        assertEquals(1 + text.length(), matches.size());
+        assertEquals(text.length() + 1, matches.getEnd(0));
+        assertEquals(new State("C"), wide.getState(matches.getState(0)));
+        // A match longer than half the lookahead is cut at the last accepting position read.
+        matches.clear();
+        scanner.scan(text + "b", matches);
+        assertEquals(1, matches.getEnd(0));
+        assertEquals(text.length() + 1, matches.getEnd(matches.size() - 1));
+        assertTrue(matches.size() < text.length());
+        StateMachine letters = new StateMachine.Builder().addState("I").addState("A")
+                .addTransition("I", "a", "A").addTransition("A", "a", "A")
+                .addAcceptingState("A").setInitialState("I").build();
+        matches.clear();
+        new MatchScanner(letters.compile(), MatchScanner.Mode.LEFTMOST_LONGEST, 8).scan("a".repeat(20), matches);
+        assertEquals(3, matches.size());
+        assertEquals(8, matches.getEnd(0));
+        assertEquals(16, matches.getEnd(1));
+        assertEquals(20, matches.getEnd(2));
+    }
+
+    @Test
+    void testLexer(){
+        Lexer lexer = VerifyCalculatorInput.generateLexer();
+        Lexer.TokenBuffer tokens = new Lexer.TokenBuffer();
+        CompiledStateMachine grammar = stateMachine.compile().skipping(" ");
+        assertTrue(lexer.validate("13 + -145=", grammar, tokens));
+        int[] types = {0, 3, 1, 3, 1, 0, 2};
+        assertEquals(types.length, tokens.size());
+        for (int i = 0; i < types.length; i++)
+            assertEquals(types[i], tokens.getType(i));
+        assertEquals(6, tokens.getStart(5));
+        assertEquals(9, tokens.getEnd(5));
+        tokens.clear();
+        assertFalse(lexer.validate("13+=", grammar, tokens));
+        assertEquals(3, tokens.size()); // stops after the token the grammar cannot accept
+        tokens.clear();
+        assertEquals(2, lexer.tokenize("12x=", tokens));
+        assertEquals(1, tokens.size());
+    }
+
+    @Test
+    void testProductOperations(){
+        StateMachine noOperators = VerifyCalculatorInput.tokenMachine("0123456789=", true);
+        StateMachine both = StateMachine.allOf(stateMachine, noOperators);
+        assertTrue(both.checker("12="));
+        assertFalse(both.checker("1+2="));
+        assertFalse(both.checker("12=3"));
+        StateMachine either = stateMachine.union(noOperators);
+        assertTrue(either.checker("1+2="));
+        assertTrue(either.checker("12=3"));
+        StateMachine difference = stateMachine.difference(noOperators);
+        assertTrue(difference.checker("1+2="));
+        assertFalse(difference.checker("12="));
+        StateMachine complement = stateMachine.complement();
+        assertTrue(complement.checker("1+2"));
+        assertFalse(complement.checker("1+2="));
+        assertFalse(complement.checker("1+x"));
+        assertFalse(stateMachine.intersection(complement).checker("1+2="));
+    }
+
+    @Test
+    void testRegexCompiler(){
+        StateMachine calculator = RegexCompiler.compile("-?\\d+([-+*/]-?\\d+)*=");
+        assertEquals(4, calculator.getStates().size());
+        assertFalse(calculator.complement().intersection(stateMachine).checker("13+145*12/13="));
+        String[] inputs = {"13+145*12/13=", "24=23+123", "63--52=", "-5=", "--5=", "5", "5a="};
+        for (String in: inputs)
+            assertEquals(stateMachine.checker(in), calculator.checker(in));
+        assertSame(calculator, RegexCompiler.compile("-?\\d+([-+*/]-?\\d+)*="));
+        StateMachine words = RegexCompiler.compile("[^ ]{2,3}( [a-c]+)?");
+        assertTrue(words.checker("x!y abc"));
+        assertFalse(words.checker("x!yz"));
+        assertThrows(IllegalArgumentException.class, () -> RegexCompiler.compile("(ab"));
+        RegexCompiler compiler = new RegexCompiler(1);
+        compiler.get("a");
+        compiler.get("b");
+        assertEquals(1, compiler.getCachedCount());
+    }
+
+    @Test
+    void testBuilder(){
+        StateMachine.Builder builder = new StateMachine.Builder()
+                .addState("A").addState("B")
+                .addTransition("A", "-", "A")
+                .setInitialState("A")
+                .addAcceptingState("B");
+        for (char c = '0'; c <= '9'; c++)
+            builder.addTransition("A", String.valueOf(c), "B").addTransition("B", String.valueOf(c), "B");
+        StateMachine integers = builder.build();
+        assertTrue(integers.checker("--12"));
+        assertFalse(integers.checker("1-2"));
+        assertEquals(11, integers.getAlphabet().size());
+        assertThrows(UnsupportedOperationException.class, () -> integers.getStates().add(new State("C")));
+        assertThrows(IllegalArgumentException.class, () -> builder.addTransition("B", "+", "C").build());
+    }
+
+    @Test
+    void testInstrumentedStateMachine(){
+        InstrumentedStateMachine instrumented = stateMachine.instrumented();
+        assertTrue(instrumented.checker("12+3="));
+        assertFalse(instrumented.checker("1+*2="));
+        assertFalse(instrumented.checker("1x"));
+        InstrumentedStateMachine.Snapshot snapshot = instrumented.snapshot();
+        assertEquals(3, snapshot.getInputs());
+        assertEquals(1, snapshot.getAccepted());
+        assertEquals(5 + 3 + 2, snapshot.getCharacters());
+        assertEquals(3, snapshot.getStateVisits(instrumented.getInitialState()));
+        assertEquals(2, snapshot.getDeadEntries().size());
+        assertEquals(1, snapshot.getLengthHistogram()[2]); // lengths 2 to 3
+        assertEquals(2, snapshot.getLengthHistogram()[3]); // lengths 4 to 7
+        instrumented.reset();
+        assertEquals(0, instrumented.snapshot().getTransitions().size());
+        // Resets that race with checker must never make an input fail.
+        Thread resetter = new Thread(() -> {
+            while (!Thread.currentThread().isInterrupted())
+                instrumented.reset();
+        });
+        resetter.start();
+        try {
+            assertTrue(IntStream.range(0, 200000).parallel().allMatch(i -> instrumented.checker("12+3=")));
+        } finally {
+            resetter.interrupt();
+        }
+    }
+
+    @Test
+    void testSpecialize(){
+        Automaton specialized = stateMachine.specialize();
+        assertTrue(specialized instanceof BytecodeStateMachine);
+        for (String input : new String[]{"12+3=", "-4*-5=", "1+*2=", "1x=", "12", "", "="})
+            assertEquals(stateMachine.checker(input), specialized.checker(input), input);
+        assertTrue(RegexCompiler.compile("(.{3}x){40}").specialize() instanceof CompiledStateMachine);
+    }
+
+    @Test
+    void testSparseStateMachine(){
+        SparseStateMachine sparse = SparseStateMachine.of(stateMachine);
+        for (String input : new String[]{"12+3=", "-4*-5=", "1+*2=", "1x=", "12", "", "="})
+            assertEquals(stateMachine.checker(input), sparse.checker(input), input);
+        assertEquals(new State("A").hashCode(), new State("A").hashCode());
+        StateMachine named = new StateMachine.Builder().addState("s").addState("Dead State")
+                .addTransition("s", "a", "Dead State").addAcceptingState("Dead State").setInitialState("s").build();
+        assertTrue(named.checker("a"));
+        assertTrue(SparseStateMachine.of(named).checker("a"));
+        assertFalse(SparseStateMachine.of(named).checker("aa"));
+
+        SparseStateMachine.Builder builder = new SparseStateMachine.Builder(5)
+                .addTransition(1, 'a', 2).addTransition(2, 'b', 3).addTransition(2, 'c', 3)
+                .setInitialState(1).setAccepting(3);
+        for (char c = 'd'; c <= 'z'; c++)
+            builder.addTransition(3, c, 4).addTransition(4, c, 3);
+        SparseStateMachine machine = builder.build();
+        assertEquals(2, machine.getDenseRowCount());
+        assertEquals(3, machine.getSparseTransitionCount());
+        assertTrue(machine.checker("ab"));
+        assertTrue(machine.checker("acde"));
+        assertFalse(machine.checker("acd"));
+        assertFalse(machine.checker("ad"));
+        assertThrows(IllegalArgumentException.class, () -> builder.addTransition(1, 'a', 3).build());
+    }
+
+    @Test
+    void testDictionaryBuilder(){
+        DictionaryBuilder builder = new DictionaryBuilder().add("cat").add("cats").add("dog").add("dogs").add("dogs");
+        SparseStateMachine sparse = builder.buildSparse();
+        // The dead state, the root, c, ca, d, do, the shared ends of cat and dog, and of cats and dogs
+        assertEquals(8, sparse.getStateCount());
+        StateMachine machine = builder.build();
+        for (String word : new String[]{"cat", "cats", "dog", "dogs"}) {
+            assertTrue(sparse.checker(word));
+            assertTrue(machine.checker(word));
+        }
+        for (String other : new String[]{"ca", "cog", "dogss", ""})
+            assertFalse(machine.checker(other));
+        assertThrows(IllegalArgumentException.class, () -> new DictionaryBuilder().add("b").add("a"));
+    }
+
+    @Test
+    void testDeadStatePruning(){
+        CompiledStateMachine compiled = new StateMachine.Builder()
+                .addState("A").addState("B").addState("Trap")
+                .addTransition("A", "a", "B").addTransition("A", "b", "Trap")
+                .addTransition("B", "a", "B").addTransition("B", "b", "B")
+                .addTransition("Trap", "a", "Trap").addTransition("Trap", "b", "Trap")
+                .setInitialState("A")
+                .addAcceptingState("B")
+                .build().compile();
+        assertEquals(Automaton.DEAD, compiled.step(compiled.getInitialState(), 'b'));
+        int b = compiled.step(compiled.getInitialState(), 'a');
+        assertTrue(compiled.isAcceptingForever(b));
+        assertFalse(compiled.isAcceptingForever(compiled.getInitialState()));
+        assertTrue(compiled.checker("abba"));
+        assertFalse(compiled.checker("abxa"));
+        assertFalse(compiled.checker("ba"));
+        assertFalse(compiled.checker(""));
+    }
+
+    @Test
+    void testStreamMatcher(){
+        StreamMatcher matcher = stateMachine.matcher();
+        assertTrue(matcher.feed("13+1"));
+        assertTrue(matcher.feed('4'));
+        assertFalse(matcher.isAccepting());
+        assertTrue(matcher.feed("5="));
+        assertTrue(matcher.isAccepting());
+        assertFalse(matcher.feed('1'));
+        assertTrue(matcher.isDead());
+        assertFalse(matcher.feed("2="));
+        matcher.reset();
+        assertFalse(matcher.isDead());
+        assertTrue(matcher.feed("-5="));
+        assertTrue(matcher.isAccepting());
+    }
+
+    @Test
+    void testMinimize(){
+        Minimization minimization = stateMachine.minimize();
+        StateMachine minimized = minimization.getMachine();
+        assertEquals(5, minimization.getOriginalStateCount());
+        assertEquals(4, minimization.getMinimizedStateCount()); // A and C behave the same
+        assertEquals(1, minimization.getRemovedStateCount());
+        assertEquals(2, minimization.getOriginalStates(minimized.getInitialState()).size());
+        String[] inputs = {"13+145*12/13=", "24=23+123", "13--152", "924+*152=", "63--52=", "25=", "-", "=", "-5-5="};
+        for (String in: inputs)
+            assertEquals(stateMachine.checker(in), minimized.checker(in));
+    }
+
+    @Test
+    void testNondeterministic(){
+        // (a|b)*abb, with epsilon moves into and out of the loop
+        ArrayList<State> q = new ArrayList<>();
+        for (int i = 0; i < 6; i++)
+            q.add(new State("q" + i));
+        ArrayList<Transition> t = new ArrayList<>();
+        t.add(new Transition(q.get(0), q.get(1), NondeterministicStateMachine.EPSILON));
+        t.add(new Transition(q.get(1), q.get(1), "a"));
+        t.add(new Transition(q.get(1), q.get(1), "b"));
+        t.add(new Transition(q.get(1), q.get(2), NondeterministicStateMachine.EPSILON));
+        t.add(new Transition(q.get(2), q.get(3), "a"));
+        t.add(new Transition(q.get(3), q.get(4), "b"));
+        t.add(new Transition(q.get(4), q.get(5), "b"));
+        ArrayList<State> accepting = new ArrayList<>();
+        accepting.add(q.get(5));
+        NondeterministicStateMachine nfa = new NondeterministicStateMachine(q,
+                new ArrayList<>(Arrays.asList("a", "b")), t, q.get(0), accepting);
+        StateMachine dfa = nfa.determinize();
+        LazyDfa smallCache = nfa.lazy(3);
+        String[] inputs = {"abb", "aabb", "babb", "ab", "abba", "bbbbabb", "", "abc", "ababababb"};
+        for (String in: inputs) {
+            boolean expected = in.endsWith("abb") && in.matches("[ab]*");
+            assertEquals(expected, nfa.checker(in), in);
+            assertEquals(expected, dfa.checker(in), in);
+            assertEquals(expected, smallCache.checker(in), in);
+        }
+        assertTrue(smallCache.getFlushCount() > 0);
+        assertEquals(4, dfa.minimize().getMinimizedStateCount());
+        t.clear();
+        assertEquals(7, nfa.getTransitionFunction().size());
+        assertThrows(UnsupportedOperationException.class, () -> nfa.getStates().add(q.get(0)));
+        assertTrue(IntStream.range(0, 10000).parallel()
+                .allMatch(i -> nfa.checker(inputs[i % inputs.length]) == inputs[i % inputs.length].endsWith("abb")));
+    }
+
     @Test
     void testReadStateMachine() {
         Scanner sc = new Scanner(FSMString());
@@ -124,6 +513,120 @@ public class StateMachineTest {
     }
 
 
+    @Test
+    void testStateMachineReader() throws IOException {
+        StateMachine actual = StateMachineReader.read(new StringReader(FSMString()));
+        assertEquals(FSMString(), actual.toString());
+        assertTrue(actual.checker("63--52="));
+        String underscore = "States\nA\nB\nAlphabet\n_\nTransition Function\nA_______B\n"
+                + "Initial State\nA\nAccepting States\nB\n";
+        actual = StateMachineReader.read(new StringReader(underscore));
+        assertEquals("_", actual.getTransitionFunction().get(0).getInput());
+        StateMachineFormatException empty = assertThrows(StateMachineFormatException.class, () ->
+                StateMachineReader.read(new StringReader(underscore.replace("A_______B", "A______B"))));
+        assertEquals(7, empty.getLine());
+        assertThrows(IllegalArgumentException.class, () -> new StateMachine.Builder()
+                .addState("A").addTransition("A", "", "A").setInitialState("A").build());
+        StateMachineFormatException e = assertThrows(StateMachineFormatException.class, () ->
+                StateMachineReader.read(new StringReader(FSMString().replace("C___-___D", "C___-___X"))));
+        assertEquals(60, e.getLine());
+        assertEquals(9, e.getColumn());
+    }
+
+    @Test
+    void testBinaryRoundTrip() throws IOException {
+        Path file = Files.createTempFile("machine", ".fsmb");
+        try {
+            MappedStateMachine.write(stateMachine.compile(), file);
+            MappedStateMachine mapped = MappedStateMachine.load(file);
+            assertEquals("E", mapped.getStateName(mapped.step(mapped.step(mapped.getInitialState(), '4'), '=')));
+            String[] inputs = {"13+145*12/13=", "24=23+123", "63--52=", "25=", "", "-", "5a="};
+            for (String in: inputs)
+                assertEquals(stateMachine.checker(in), mapped.checker(in));
+            StateMachine text = StateMachineReader.read(new StringReader(mapped.toCompiled().toStateMachine().toString()));
+            for (String in: inputs)
+                assertEquals(stateMachine.checker(in), text.checker(in));
+            ByteBuffer corrupt = MappedStateMachine.toBytes(stateMachine.compile());
+            ByteBuffer truncated = corrupt.duplicate().limit(corrupt.limit() - 1);
+            assertThrows(StateMachineFormatException.class, () -> MappedStateMachine.wrap(truncated));
+            corrupt.order(ByteOrder.LITTLE_ENDIAN).putInt(16, 1000);
+            assertThrows(StateMachineFormatException.class, () -> MappedStateMachine.wrap(corrupt));
+            corrupt.putInt(16, stateMachine.compile().getInitialState());
+            int tableEnd = corrupt.limit() - 4 * (stateMachine.compile().getStateCount() + 1) - corrupt.getInt(24);
+            corrupt.putInt(tableEnd - 4, -1);
+            MappedStateMachine unverified = MappedStateMachine.wrap(corrupt);
+            assertThrows(StateMachineFormatException.class, unverified::verify);
+            assertSame(mapped, mapped.verify());
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    void testOffHeap() throws IOException {
+        Path file = Files.createTempFile("machine", ".fsmb");
+        try {
+            MappedStateMachine offHeap = stateMachine.offHeap();
+            MappedStateMachine created = MappedStateMachine.create(stateMachine.compile(), file);
+            MappedStateMachine shared = MappedStateMachine.load(file);
+            for (String in: new String[]{"13+145*12/13=", "24=23+123", "25=", "", "5a="}) {
+                assertEquals(stateMachine.checker(in), offHeap.checker(in));
+                assertEquals(stateMachine.checker(in), created.checker(in));
+                assertEquals(stateMachine.checker(in), shared.checker(in));
+            }
+            assertEquals("E", offHeap.getStateName(offHeap.run(offHeap.getInitialState(), "4=", 0, 2)));
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    void testValidationServer() throws IOException {
+        try (ValidationServer server = new ValidationServer(stateMachine.compile().skipping(" \r"), 0)) {
+            try (SocketChannel client = SocketChannel.open(server.getAddress())) {
+                client.write(ByteBuffer.wrap("13 + 4 =\r\n\n5x=\n-2".getBytes(StandardCharsets.UTF_8)));
+                client.write(ByteBuffer.wrap("=\n".getBytes(StandardCharsets.UTF_8)));
+                ByteBuffer verdicts = ByteBuffer.allocate(4);
+                while (verdicts.hasRemaining())
+                    client.read(verdicts);
+                assertEquals("1001", new String(verdicts.array(), StandardCharsets.US_ASCII));
+            }
+            ValidationLoadGenerator.Result result = new ValidationLoadGenerator(server.getAddress(),
+                    Arrays.asList("12+3=", "1+*2=")).run(3, 100, 8);
+            assertEquals(300, result.getLines());
+            assertEquals(150, result.getAccepted());
+            assertTrue(result.getLatency(99) >= result.getLatency(50));
+        }
+    }
+
+    @Test
+    void testMachineRegistry() throws IOException {
+        Path text = Files.createTempFile("machine", ".txt");
+        Path binary = Files.createTempFile("machine", ".fsmb");
+        try (MachineRegistry registry = new MachineRegistry()) {
+            Files.write(text, stateMachine.toString().getBytes(StandardCharsets.UTF_8));
+            MappedStateMachine.write(RegexCompiler.compile("[a-z]+").compile(), binary);
+            registry.load("calculator", text);
+            registry.load("words", binary);
+            assertTrue(registry.checker("calculator", "1+2="));
+            assertTrue(registry.checker("words", "abc"));
+            Automaton old = registry.get("calculator");
+            Files.write(text, RegexCompiler.compile("\\d+").toString().getBytes(StandardCharsets.UTF_8));
+            registry.reload("calculator");
+            assertTrue(old.checker("1+2="));
+            assertFalse(registry.checker("calculator", "1+2="));
+            assertTrue(registry.checker("calculator", "12"));
+            Files.write(text, "States\nA\n".getBytes(StandardCharsets.UTF_8));
+            assertThrows(IllegalArgumentException.class, () -> registry.reload("calculator"));
+            assertTrue(registry.checker("calculator", "12"));
+            registry.remove("words");
+            assertEquals(1, registry.getNames().size());
+        } finally {
+            Files.delete(text);
+            Files.delete(binary);
+        }
+    }
+
     @Test
     void testReadStates(){
         String toRead = "A\nB\nC\nD\nE\nAlphabet\nsome alpha";
@@ -0,0 +1,67 @@
+/**
+ * A resumable run of an Automaton, for input that arrives in fragments.
+ * The whole progress is the current state id, and nothing is allocated after construction,
+ * so a matcher can be kept per connection and fed as data comes in. A matcher is not
+ * thread-safe, but any number of matchers can share one compiled machine.
+ */
+public final class StreamMatcher {
+    private final Automaton machine;
+    private int state;
+
+    public StreamMatcher(Automaton machine) {
+        this.machine = machine;
+        this.state = machine.getInitialState();
+    }
+
+    /**
+     * Feeds the next character.
+     * @param c The character.
+     * @return False if the input can no longer be accepted, whatever comes next.
+     */
+    public boolean feed(char c) {
+        if (state != Automaton.DEAD)
+            state = machine.step(state, c);
+        return state != Automaton.DEAD;
+    }
+
+    /**
+     * Feeds the next fragment of the input. Feeding stops at the first character that
+     * leads to the dead state.
+     * @param fragment The characters.
+     * @return False if the input can no longer be accepted, whatever comes next.
+     */
+    public boolean feed(CharSequence fragment) {
+        state = machine.run(state, fragment, 0, fragment.length());
+        return state != Automaton.DEAD;
+    }
+
+    /**
+     * Unlike checker, this does not treat an empty input specially: before anything is fed
+     * it reports whether the initial state is accepting.
+     * @return Whether the input fed since the last reset is in the language.
+     */
+    public boolean isAccepting() {
+        return machine.isAccepting(state);
+    }
+
+    /**
+     * @return Whether the input fed since the last reset has reached the dead state.
+     */
+    public boolean isDead() {
+        return state == Automaton.DEAD;
+    }
+
+    /**
+     * @return The id of the current state, see Automaton.getStateName.
+     */
+    public int getState() {
+        return state;
+    }
+
+    /**
+     * Forgets the input fed so far and starts again from the initial state.
+     */
+    public void reset() {
+        state = machine.getInitialState();
+    }
+}
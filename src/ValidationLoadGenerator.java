@@ -0,0 +1,175 @@
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * A client for ValidationServer that measures throughput and latency over loopback.
+ * Each connection sends its lines in batches of pipelineDepth lines, and waits for the
+ * verdicts of a batch before it sends the next one. The latency of a line is the round
+ * trip of its batch, so with a depth of 1 it is the latency of a single request. A batch
+ * is written whole before its verdicts are read, so its verdicts have to fit in the
+ * socket buffers; depths up to some tens of thousands are safe.
+ */
+public final class ValidationLoadGenerator {
+    private final InetSocketAddress address;
+    private final byte[][] lines;
+
+    /**
+     * The outcome of a run.
+     */
+    public static final class Result {
+        private final long lines;
+        private final long accepted;
+        private final long nanos;
+        private final long[] latencies;
+
+        Result(long lines, long accepted, long nanos, long[] latencies) {
+            this.lines = lines;
+            this.accepted = accepted;
+            this.nanos = nanos;
+            this.latencies = latencies;
+        }
+
+        public long getLines() {
+            return lines;
+        }
+
+        public long getAccepted() {
+            return accepted;
+        }
+
+        /**
+         * @return The number of lines checked per second, over all connections.
+         */
+        public double getThroughput() {
+            return lines * 1e9 / nanos;
+        }
+
+        /**
+         * @param percentile A percentile between 0 and 100.
+         * @return The round trip time of a batch at that percentile, in nanoseconds.
+         */
+        public long getLatency(double percentile) {
+            if (latencies.length == 0)
+                return 0;
+            int index = (int) Math.ceil(percentile / 100 * latencies.length) - 1;
+            return latencies[Math.max(0, Math.min(index, latencies.length - 1))];
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d lines, %d accepted, %.0f lines/s, p50 %.1f us, p99 %.1f us",
+                    lines, accepted, getThroughput(), getLatency(50) / 1e3, getLatency(99) / 1e3);
+        }
+    }
+
+    /**
+     * @param address The address of the server.
+     * @param lines The lines to send, without their newlines; they are sent round robin.
+     */
+    public ValidationLoadGenerator(InetSocketAddress address, List<String> lines) {
+        if (lines.isEmpty())
+            throw new IllegalArgumentException("No lines to send");
+        this.address = address;
+        this.lines = new byte[lines.size()][];
+        for (int i = 0; i < this.lines.length; i++)
+            this.lines[i] = (lines.get(i) + "\n").getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Sends lines over several connections at the same time.
+     * @param connections The number of connections.
+     * @param linesPerConnection The number of lines each connection sends.
+     * @param pipelineDepth The number of lines sent before waiting for their verdicts.
+     * @return The throughput and the latencies.
+     * @throws IOException If a connection fails.
+     */
+    public Result run(int connections, int linesPerConnection, int pipelineDepth) throws IOException {
+        if (connections <= 0 || linesPerConnection <= 0 || pipelineDepth <= 0)
+            throw new IllegalArgumentException("Connections, lines and depth must be positive");
+        ExecutorService executor = ValidationServer.newConnectionExecutor();
+        try {
+            List<Callable<long[]>> tasks = new ArrayList<>();
+            for (int c = 0; c < connections; c++) {
+                int offset = c;
+                tasks.add(() -> connection(offset, linesPerConnection, pipelineDepth));
+            }
+            long start = System.nanoTime();
+            List<Future<long[]>> results = executor.invokeAll(tasks);
+            long accepted = 0;
+            List<long[]> latencies = new ArrayList<>();
+            for (Future<long[]> result : results) {
+                long[] connection = result.get();
+                accepted += connection[0];
+                latencies.add(Arrays.copyOfRange(connection, 1, connection.length));
+            }
+            long nanos = System.nanoTime() - start;
+            long[] all = latencies.stream().flatMapToLong(Arrays::stream).sorted().toArray();
+            return new Result((long) connections * linesPerConnection, accepted, nanos, all);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while generating load", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException)
+                throw (IOException) e.getCause();
+            throw new IOException(e.getCause());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * @return The number of accepted lines, followed by the round trip time of each batch.
+     */
+    private long[] connection(int offset, int count, int depth) throws IOException {
+        int batches = (count + depth - 1) / depth;
+        long[] result = new long[1 + batches];
+        try (SocketChannel channel = SocketChannel.open(address)) {
+            channel.socket().setTcpNoDelay(true);
+            ByteBuffer out = ByteBuffer.allocateDirect(64 * 1024);
+            ByteBuffer in = ByteBuffer.allocateDirect(Math.max(depth, 64 * 1024));
+            int next = offset;
+            int sent = 0;
+            for (int batch = 0; batch < batches; batch++) {
+                int size = Math.min(depth, count - sent);
+                long start = System.nanoTime();
+                for (int i = 0; i < size; i++) {
+                    byte[] line = lines[next++ % lines.length];
+                    if (out.remaining() < line.length) {
+                        send(channel, out);
+                        if (out.remaining() < line.length)
+                            throw new IllegalArgumentException("Line longer than the send buffer");
+                    }
+                    out.put(line);
+                }
+                send(channel, out);
+                in.clear().limit(size);
+                while (in.hasRemaining())
+                    if (channel.read(in) < 0)
+                        throw new IOException("Server closed the connection");
+                result[1 + batch] = System.nanoTime() - start;
+                for (int i = 0; i < size; i++)
+                    if (in.get(i) == ValidationServer.ACCEPTED)
+                        result[0]++;
+                sent += size;
+            }
+        }
+        return result;
+    }
+
+    private static void send(SocketChannel channel, ByteBuffer out) throws IOException {
+        out.flip();
+        while (out.hasRemaining())
+            channel.write(out);
+        out.clear();
+    }
+}
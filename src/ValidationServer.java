@@ -0,0 +1,171 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * A long-running server that checks newline-delimited inputs sent over TCP.
+ * Clients may pipeline any number of lines without waiting; the server answers each
+ * complete line with one byte, '1' if it is accepted and '0' if it is not, in the order
+ * the lines were sent. Lines are decoded as UTF-8 and an empty line is rejected, as in
+ * FileValidator. Bytes are fed straight from the socket buffer into the machine, so
+ * checking a line allocates nothing.
+ * <p>
+ * Every connection is served by its own thread, with blocking reads and writes. On a
+ * runtime with virtual threads each connection gets a virtual thread; otherwise the
+ * threads come from a cached pool. All connections share one compiled machine, which is
+ * immutable.
+ */
+public final class ValidationServer implements Closeable {
+    private static final int BUFFER_SIZE = 64 * 1024;
+    public static final byte ACCEPTED = '1';
+    public static final byte REJECTED = '0';
+
+    private final CompiledStateMachine machine;
+    private final ServerSocketChannel server;
+    private final ExecutorService connections;
+    private final Set<SocketChannel> open = ConcurrentHashMap.newKeySet();
+    private final Thread acceptor;
+
+    /**
+     * Starts a server on the loopback interface.
+     * @param machine The machine to check each line with. Use CompiledStateMachine.skipping
+     *                to ignore whitespace, including the '\r' of "\r\n" line ends.
+     * @param port The port to listen on, 0 for any free port.
+     * @throws IOException If the port cannot be bound.
+     */
+    public ValidationServer(CompiledStateMachine machine, int port) throws IOException {
+        this.machine = machine;
+        server = ServerSocketChannel.open();
+        server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+        connections = newConnectionExecutor();
+        acceptor = new Thread(this::acceptLoop, "validation-server-acceptor");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    /**
+     * @return An executor that starts a virtual thread per task where the runtime has
+     * them, and a pool of daemon platform threads otherwise.
+     */
+    static ExecutorService newConnectionExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newCachedThreadPool(task -> {
+                Thread thread = new Thread(task, "validation-connection");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
+    /**
+     * @return The address the server listens on.
+     */
+    public InetSocketAddress getAddress() throws IOException {
+        return (InetSocketAddress) server.getLocalAddress();
+    }
+
+    private void acceptLoop() {
+        try {
+            while (true) {
+                SocketChannel client = server.accept();
+                open.add(client);
+                try {
+                    connections.execute(() -> serve(client));
+                } catch (RejectedExecutionException e) {
+                    // Closed between accept and execute.
+                    open.remove(client);
+                    client.close();
+                    return;
+                }
+            }
+        } catch (IOException e) {
+            // Stopped by close.
+        }
+    }
+
+    private void serve(SocketChannel client) {
+        try (client) {
+            client.socket().setTcpNoDelay(true);
+            ByteBuffer in = ByteBuffer.allocateDirect(BUFFER_SIZE);
+            ByteBuffer out = ByteBuffer.allocateDirect(BUFFER_SIZE);
+            int initial = machine.getInitialState();
+            int state = initial;
+            boolean empty = true;
+            while (client.read(in) >= 0) {
+                int limit = in.position();
+                int i = 0;
+                while (i < limit) {
+                    byte b = in.get(i);
+                    if (b == '\n') {
+                        if (!out.hasRemaining())
+                            flush(client, out);
+                        out.put(!empty && machine.isAccepting(state) ? ACCEPTED : REJECTED);
+                        state = initial;
+                        empty = true;
+                        i++;
+                        continue;
+                    }
+                    empty = false;
+                    if (b >= 0) {
+                        if (state != Automaton.DEAD)
+                            state = machine.step(state, (char) b);
+                        i++;
+                        continue;
+                    }
+                    // A multi-byte character: its lead byte and continuation bytes go to the decoder.
+                    int length = (b & 0xE0) == 0xC0 ? 2 : (b & 0xF0) == 0xE0 ? 3 : (b & 0xF8) == 0xF0 ? 4 : 1;
+                    int end = i + 1;
+                    while (end < limit && end - i < length && (in.get(end) & 0xC0) == 0x80)
+                        end++;
+                    if (end == limit && end - i < length)
+                        break;
+                    if (state != Automaton.DEAD)
+                        state = machine.run(state, in, i, end);
+                    i = end;
+                }
+                // Keep the bytes of a character that is split between reads.
+                in.position(i).limit(limit);
+                in.compact();
+                flush(client, out);
+            }
+        } catch (IOException e) {
+            // The client went away, or the server was closed.
+        } finally {
+            open.remove(client);
+        }
+    }
+
+    private static void flush(SocketChannel client, ByteBuffer out) throws IOException {
+        out.flip();
+        while (out.hasRemaining())
+            client.write(out);
+        out.clear();
+    }
+
+    /**
+     * Stops accepting connections and closes the open ones.
+     */
+    @Override
+    public void close() throws IOException {
+        server.close();
+        for (SocketChannel client : open)
+            client.close();
+        connections.shutdown();
+        try {
+            acceptor.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -1,28 +1,135 @@
 import java.io.FileWriter;
 import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Scanner;
 
 public class VerifyCalculatorInput {
 
-    static StateMachine verifier;
+    static final StateMachine verifier = generateMachine();
+    static final String WHITESPACE = " \t\r\f\u000B";
+    static final String[] TOKEN_TYPES = {"number", "operator", "equals", "whitespace"};
 
-    public static void main(String[] args){
-        verifier = generateMachine();
+    public static void main(String[] args) throws IOException {
+        if (args.length == 2 && args[0].equals("--file")) {
+            validateFile(Paths.get(args[1]));
+            return;
+        }
+        if (args.length == 2 && args[0].equals("--serve")) {
+            serve(Integer.parseInt(args[1]));
+            return;
+        }
+        if (args.length == 5 && args[0].equals("--load")) {
+            generateLoad(Integer.parseInt(args[1]), Integer.parseInt(args[2]), Integer.parseInt(args[3]),
+                    Integer.parseInt(args[4]));
+            return;
+        }
         System.out.println("Project by Mudit Lodha.");
         System.out.println("This is a finite state machine which verifies whether the user input expression is a valid expression for a calculator");
         System.out.println("Enter the input to be tested");
         Scanner sc = new Scanner(System.in);
         String input = sc.nextLine();
+        Lexer.TokenBuffer tokens = new Lexer.TokenBuffer();
+        boolean valid = generateLexer().validate(input, verifier.compile().skipping(WHITESPACE), tokens);
+        String tokenized = describeTokens(input, tokens);
         input = input.replaceAll("\\s","");
-        boolean valid = verifier.checker(input);
-        if(valid)
+        if(valid) {
             System.out.println(input+" is a valid expression for a calculator input.");
+            System.out.println("Tokens: " + tokenized);
+        }
         else
             System.out.println(input+" is not a valid expression for a calculator input.");
 
     }
 
+    /**
+     * Validates a file with one expression per line and prints how many are valid.
+     * Whitespace is skipped by the transition table itself instead of being removed first.
+     */
+    public static void validateFile(Path file) throws IOException {
+        CompiledStateMachine machine = verifier.compile().skipping(WHITESPACE);
+        FileValidator.Counts counts = new FileValidator(machine).validate(file);
+        System.out.println(counts.getAccepted() + " valid and " + counts.getRejected()
+                + " invalid expressions in " + file);
+    }
+
+    /**
+     * Serves calculator validation on a loopback port until the process is stopped.
+     * Each line sent is answered with '1' if it is a valid expression and '0' if not.
+     */
+    public static void serve(int port) throws IOException {
+        ValidationServer server = new ValidationServer(verifier.compile().skipping(WHITESPACE), port);
+        System.out.println("Validating calculator input on " + server.getAddress());
+        while (true) {
+            try {
+                Thread.sleep(Long.MAX_VALUE);
+            } catch (InterruptedException e) {
+                server.close();
+                return;
+            }
+        }
+    }
+
+    /**
+     * Sends calculator expressions to a server started with serve and prints the
+     * throughput and latencies.
+     */
+    public static void generateLoad(int port, int connections, int linesPerConnection, int pipelineDepth)
+            throws IOException {
+        List<String> lines = Arrays.asList("13 + 145 * 12 / 13 =", "24 = 23 + 123", "-552=",
+                "252/-52=", "63 - - 52 =", "5x2=");
+        ValidationLoadGenerator generator = new ValidationLoadGenerator(
+                new InetSocketAddress(InetAddress.getLoopbackAddress(), port), lines);
+        System.out.println(generator.run(connections, linesPerConnection, pipelineDepth));
+    }
+
+    /**
+     * Builds a lexer for calculator input, with the token types of TOKEN_TYPES.
+     * A minus sign is an operator token; whether it is unary is up to the grammar.
+     */
+    public static Lexer generateLexer(){
+        return Lexer.of(tokenMachine("0123456789", true), tokenMachine("+-*/", false),
+                tokenMachine("=", false), tokenMachine(WHITESPACE, true));
+    }
+
+    /**
+     * @param chars The characters of the token.
+     * @param repeated Whether a token is a run of the characters instead of a single one.
+     * @return A machine accepting the tokens.
+     */
+    static StateMachine tokenMachine(String chars, boolean repeated){
+        ArrayList<State> states = new ArrayList<>();
+        states.add(new State("Start"));
+        states.add(new State("Token"));
+        ArrayList<String> alphabet = new ArrayList<>();
+        ArrayList<Transition> transitions = new ArrayList<>();
+        for (char c : chars.toCharArray()) {
+            alphabet.add(String.valueOf(c));
+            transitions.add(new Transition(states.get(0), states.get(1), String.valueOf(c)));
+            if (repeated)
+                transitions.add(new Transition(states.get(1), states.get(1), String.valueOf(c)));
+        }
+        ArrayList<State> accepting = new ArrayList<>();
+        accepting.add(states.get(1));
+        return new StateMachine(states, alphabet, transitions, states.get(0), accepting);
+    }
+
+    private static String describeTokens(String input, Lexer.TokenBuffer tokens){
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < tokens.size(); i++) {
+            if (TOKEN_TYPES[tokens.getType(i)].equals("whitespace"))
+                continue;
+            sb.append(TOKEN_TYPES[tokens.getType(i)]).append('(')
+                    .append(input, tokens.getStart(i), tokens.getEnd(i)).append(") ");
+        }
+        return sb.toString().trim();
+    }
+
     public static StateMachine generateMachine(){
         ArrayList<State> states = generateStates();
         ArrayList<Transition> transitionFunction = generateTransitions(states);